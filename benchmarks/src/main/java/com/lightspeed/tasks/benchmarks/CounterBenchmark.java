@@ -0,0 +1,82 @@
+package com.lightspeed.tasks.benchmarks;
+
+import com.lightspeed.tasks.cardinality.AdaptiveAddressSet;
+import com.lightspeed.tasks.cardinality.AddressBitmap;
+import com.lightspeed.tasks.cardinality.AddressCounter;
+import com.lightspeed.tasks.cardinality.HyperLogLogCounter;
+import com.lightspeed.tasks.libs.types.CounterTypes;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marking addresses in the shared counter from 1, 4 and all threads, to see the cost of the contention.
+ * Every thread walks the same dataset from its own offset, the score is per address.
+ * Like the scan workers, every thread adds through its own worker counter, which is the shared counter itself
+ * for the bitmap and the adaptive set, and its own registers for the HyperLogLog, flushed after every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CounterBenchmark {
+    private static final int ADDRESS_COUNT = 1 << 22;
+    @Param({"BITMAP", "ADAPTIVE", "HYPERLOGLOG"})
+    public CounterTypes counterType;
+    @Param({"1048576"})
+    public int uniqueCount;
+    private AddressCounter addressCounter;
+    private int[] addresses;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+        private AddressCounter workerCounter;
+
+        @Setup
+        public void setup(CounterBenchmark benchmark) {
+            index = (int) (Thread.currentThread().threadId() * 7919) & ADDRESS_COUNT - 1;
+            workerCounter = benchmark.addressCounter.newWorkerCounter();
+        }
+
+        @TearDown(Level.Iteration)
+        public void flush() {
+            workerCounter.flush();
+        }
+
+        int next() {
+            index = index + 1 & ADDRESS_COUNT - 1;
+            return index;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        addresses = new SyntheticDataset(ADDRESS_COUNT, uniqueCount).getAddresses();
+        addressCounter = switch (counterType) {
+            case ADAPTIVE -> new AdaptiveAddressSet();
+            case HYPERLOGLOG -> new HyperLogLogCounter(14);
+            default -> new AddressBitmap();
+        };
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void add1Thread(Cursor cursor) {
+        cursor.workerCounter.add(addresses[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void add4Threads(Cursor cursor) {
+        cursor.workerCounter.add(addresses[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void addMaxThreads(Cursor cursor) {
+        cursor.workerCounter.add(addresses[cursor.next()]);
+    }
+}
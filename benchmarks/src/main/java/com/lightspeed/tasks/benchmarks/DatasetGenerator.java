@@ -0,0 +1,173 @@
+package com.lightspeed.tasks.benchmarks;
+
+import com.lightspeed.tasks.libs.InitConfig;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Writes an input file of a chosen size and a sidecar file with its exact counts, see {@link ThroughputHarness}.
+ * <p>
+ * Usage: DatasetGenerator outputFile size [--unique ratio] [--crlf ratio] [--broken ratio] [--seed seed]
+ * <p>
+ * The size accepts the K, M and G suffixes. The unique ratio is the share of lines with a new address,
+ * the crlf ratio the share of lines ending with \r\n, the broken ratio the share of lines that are not valid addresses.
+ * The lines around every chunk boundary are addresses, so the boundary splits an address to check the chunk planning.
+ */
+public class DatasetGenerator {
+    public static final String EXPECTED_SUFFIX = ".expected";
+    private static final String[] BROKEN_LINES = {"", "256.1.1.1", "1.2.3", "1.2.3.4.5", "1..2.3", "a.b.c.d", " 1.2.3.4", "1.2.3.4 ", "1.2.3.-4", "1234.1.1.1"};
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    private final long size;
+    private final double uniqueRatio;
+    private final double crlfRatio;
+    private final double brokenRatio;
+    private final SplittableRandom random;
+    private long uniqueCount = 0;
+    private long totalCount = 0;
+    private long lineCount = 0;
+
+    public DatasetGenerator(long size, double uniqueRatio, double crlfRatio, double brokenRatio, long seed) {
+        if (size <= 0 || uniqueRatio <= 0 || uniqueRatio > 1 || crlfRatio < 0 || crlfRatio > 1 || brokenRatio < 0 || brokenRatio >= 1) {
+            throw new IllegalArgumentException();
+        }
+        this.size = size;
+        this.uniqueRatio = uniqueRatio;
+        this.crlfRatio = crlfRatio;
+        this.brokenRatio = brokenRatio;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: DatasetGenerator outputFile size [--unique ratio] [--crlf ratio] [--broken ratio] [--seed seed]");
+            return;
+        }
+        double uniqueRatio = 0.1;
+        double crlfRatio = 0.1;
+        double brokenRatio = 0.01;
+        long seed = SyntheticDataset.SEED;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--unique" -> uniqueRatio = Double.parseDouble(args[++i]);
+                case "--crlf" -> crlfRatio = Double.parseDouble(args[++i]);
+                case "--broken" -> brokenRatio = Double.parseDouble(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        Path outputPath = Paths.get(args[0]);
+        DatasetGenerator datasetGenerator = new DatasetGenerator(parseSize(args[1]), uniqueRatio, crlfRatio, brokenRatio, seed);
+        datasetGenerator.generate(outputPath);
+        System.out.println("Generated: " + outputPath + " unique: " + datasetGenerator.uniqueCount
+                + " total: " + datasetGenerator.totalCount + " lines: " + datasetGenerator.lineCount);
+    }
+
+    /**
+     * Writes the file and its sidecar with the exact counts.
+     *
+     * @param outputPath The file to write
+     * @throws IOException if the files can't be written
+     */
+    public void generate(Path outputPath) throws IOException {
+        long chunkSize = InitConfig.DEFAULT.fileReadChunkSize();
+        long written = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (written < size) {
+                //Only addresses are written close to a chunk boundary, so one of them is split by it
+                boolean isNearBoundary = chunkSize - written % chunkSize <= 16;
+                String line;
+                if (!isNearBoundary && random.nextDouble() < brokenRatio) {
+                    line = BROKEN_LINES[random.nextInt(BROKEN_LINES.length)];
+                } else {
+                    line = nextAddress();
+                }
+                byte[] bytes = (line + (random.nextDouble() < crlfRatio ? "\r\n" : "\n")).getBytes(StandardCharsets.US_ASCII);
+                if (buffer.remaining() < bytes.length) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                buffer.put(bytes);
+                written += bytes.length;
+                lineCount++;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        Properties expected = new Properties();
+        expected.setProperty("uniqueCount", Long.toString(uniqueCount));
+        expected.setProperty("totalCount", Long.toString(totalCount));
+        expected.setProperty("lineCount", Long.toString(lineCount));
+        expected.setProperty("size", Long.toString(written));
+        try (Writer writer = Files.newBufferedWriter(outputPath.resolveSibling(outputPath.getFileName() + EXPECTED_SUFFIX))) {
+            expected.store(writer, "Exact counts of " + outputPath.getFileName());
+        }
+    }
+
+    /**
+     * @return A new or a repeated address as text
+     */
+    private String nextAddress() {
+        long index;
+        if (uniqueCount == 0 || random.nextDouble() < uniqueRatio) {
+            index = uniqueCount++;
+        } else {
+            index = random.nextLong(uniqueCount);
+        }
+        totalCount++;
+        return toText(permute(index));
+    }
+
+    /**
+     * A bijection of the 32-bit values, so the first n indexes always give n distinct addresses spread over the whole space.
+     */
+    private static int permute(long index) {
+        int value = (int) index;
+        if (index >= 1L << 32) {
+            throw new IllegalStateException("More than 2^32 unique addresses");
+        }
+        value *= 0x9E3779B1;
+        value ^= value >>> 16;
+        value *= 0x85EBCA6B;
+        value ^= value >>> 13;
+        return value;
+    }
+
+    private static String toText(int address) {
+        return (address >>> 24) + "." + (address >>> 16 & 0xff) + "." + (address >>> 8 & 0xff) + "." + (address & 0xff);
+    }
+
+    /**
+     * @param size The size with an optional K, M or G suffix ex. 10G
+     * @return The size in bytes
+     */
+    public static long parseSize(String size) {
+        String value = size.trim().toUpperCase();
+        long multiplier = switch (value.charAt(value.length() - 1)) {
+            case 'K' -> 1024L;
+            case 'M' -> 1024L * 1024;
+            case 'G' -> 1024L * 1024 * 1024;
+            default -> 1;
+        };
+        if (multiplier > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * multiplier;
+    }
+}
@@ -0,0 +1,72 @@
+package com.lightspeed.tasks.benchmarks;
+
+import com.lightspeed.tasks.cardinality.OccurrenceAccumulator;
+import com.lightspeed.tasks.cardinality.OccurrenceCounter;
+import com.lightspeed.tasks.cardinality.OffHeapOccurrenceCounter;
+import com.lightspeed.tasks.cardinality.SketchOccurrenceCounter;
+import com.lightspeed.tasks.libs.types.OccurrenceCounterTypes;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counting the occurrences through the accumulator of every thread into the shared counter, from 1 and all threads.
+ * The {@link OccurrenceCounterTypes#OFF_HEAP} counter needs 4 GB of free memory besides the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class OccurrenceCounterBenchmark {
+    private static final int ADDRESS_COUNT = 1 << 22;
+    @Param({"SKETCH", "OFF_HEAP"})
+    public OccurrenceCounterTypes occurrenceCounterType;
+    @Param({"1048576"})
+    public int uniqueCount;
+    private OccurrenceCounter occurrenceCounter;
+    private int[] addresses;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+        private OccurrenceAccumulator occurrenceAccumulator;
+
+        @Setup
+        public void setup(OccurrenceCounterBenchmark benchmark) {
+            index = (int) (Thread.currentThread().threadId() * 7919) & ADDRESS_COUNT - 1;
+            occurrenceAccumulator = new OccurrenceAccumulator(benchmark.occurrenceCounter);
+        }
+
+        int next() {
+            index = index + 1 & ADDRESS_COUNT - 1;
+            return index;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        addresses = new SyntheticDataset(ADDRESS_COUNT, uniqueCount).getAddresses();
+        occurrenceCounter = occurrenceCounterType == OccurrenceCounterTypes.OFF_HEAP
+                ? new OffHeapOccurrenceCounter()
+                : new SketchOccurrenceCounter(SketchOccurrenceCounter.MAX_WIDTH_BITS, 100);
+    }
+
+    @TearDown
+    public void tearDown() {
+        occurrenceCounter.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void add1Thread(Cursor cursor) {
+        cursor.occurrenceAccumulator.add(addresses[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void addMaxThreads(Cursor cursor) {
+        cursor.occurrenceAccumulator.add(addresses[cursor.next()]);
+    }
+}
@@ -0,0 +1,71 @@
+package com.lightspeed.tasks.benchmarks;
+
+import com.lightspeed.tasks.libs.IPAddressParser;
+import com.lightspeed.tasks.libs.Utils;
+import com.lightspeed.tasks.libs.VectorLineParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parsing of the lines of a chunk and the validation of the text addresses.
+ * The scores of {@link #parseLines} and {@link #parseLinesVectorized} are per chunk of 256k lines, the others are per address.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+    private static final int LINE_COUNT = 1 << 18;
+    private ByteBuffer chunk;
+    private String[] textAddresses;
+    private int index = 0;
+    private long vectorChecksum;
+
+    @Setup
+    public void setup() {
+        SyntheticDataset syntheticDataset = new SyntheticDataset(LINE_COUNT, LINE_COUNT / 2);
+        chunk = syntheticDataset.toLines();
+        textAddresses = syntheticDataset.toText();
+    }
+
+    @Benchmark
+    public long parseLines() {
+        long checksum = 0;
+        int limit = chunk.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = IPAddressParser.nextLineEnd(chunk, lineStart, limit);
+            checksum += IPAddressParser.parse(chunk, lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+    public long parseLinesVectorized() throws InterruptedException {
+        vectorChecksum = 0;
+        new VectorLineParser(address -> vectorChecksum += address).parseLines(chunk, 0, chunk.limit());
+        return vectorChecksum;
+    }
+
+    @Benchmark
+    public void isValidIPAddress(Blackhole blackhole) {
+        blackhole.consume(Utils.isValidIPAddress(nextTextAddress()));
+    }
+
+    @Benchmark
+    public void ipToLong(Blackhole blackhole) {
+        blackhole.consume(Utils.ipToLong(nextTextAddress()));
+    }
+
+    private String nextTextAddress() {
+        index = index + 1 & LINE_COUNT - 1;
+        return textAddresses[index];
+    }
+}
@@ -0,0 +1,69 @@
+package com.lightspeed.tasks.benchmarks;
+
+import com.lightspeed.tasks.libs.InitConfig;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The handoff of the address batches from the chunk workers to the consumers through the share queue of the QUEUE mode.
+ * The producers and the consumers run together in one group.
+ * The non-blocking calls are used, a blocked thread would hang the end of the iteration, so a call may find the queue
+ * full or empty. Read the offered and taken counters, they count only the batches handed off, the score of the
+ * methods themselves counts the failed calls too.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueHandoffBenchmark {
+    private BlockingQueue<int[]> ipAddressesBlockingQueue;
+    private int[] addressBatch;
+
+    /**
+     * The successful calls of one thread, reported as operations per time unit.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Transfers {
+        public long offered;
+        public long taken;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            offered = 0;
+            taken = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        ipAddressesBlockingQueue = new ArrayBlockingQueue<>(InitConfig.DEFAULT.steamShareBlockSize());
+        addressBatch = new SyntheticDataset(InitConfig.DEFAULT.addressBatchSize(), InitConfig.DEFAULT.addressBatchSize()).getAddresses();
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(2)
+    public void produce(Transfers transfers) {
+        if (ipAddressesBlockingQueue.offer(addressBatch)) {
+            transfers.offered++;
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(2)
+    public void consume(Transfers transfers, Blackhole blackhole) {
+        int[] addresses = ipAddressesBlockingQueue.poll();
+        if (addresses != null) {
+            blackhole.consume(addresses);
+            transfers.taken++;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.lightspeed.tasks.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Fixed synthetic addresses for the benchmarks. The same seed always gives the same data,
+ * so the results of different commits are measured on the same input.
+ */
+public class SyntheticDataset {
+    public static final long SEED = 0x5CA77E5L;
+    private final int[] addresses;
+
+    /**
+     *
+     * @param count       The count of addresses
+     * @param uniqueCount The count of distinct addresses, the rest are repeated
+     */
+    public SyntheticDataset(int count, int uniqueCount) {
+        if (uniqueCount < 1 || uniqueCount > count) {
+            throw new IllegalArgumentException();
+        }
+        SplittableRandom random = new SplittableRandom(SEED);
+        int[] uniqueAddresses = new int[uniqueCount];
+        for (int i = 0; i < uniqueCount; i++) {
+            uniqueAddresses[i] = random.nextInt();
+        }
+        addresses = new int[count];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = uniqueAddresses[random.nextInt(uniqueCount)];
+        }
+    }
+
+    public int[] getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * @return The addresses as text ex. 192.168.0.1
+     */
+    public String[] toText() {
+        String[] lines = new String[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            lines[i] = toText(addresses[i]);
+        }
+        return lines;
+    }
+
+    /**
+     * @return A direct buffer with one address per line, as a chunk of an input file
+     */
+    public ByteBuffer toLines() {
+        StringBuilder text = new StringBuilder(addresses.length * 16);
+        for (int address : addresses) {
+            text.append(toText(address)).append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    private static String toText(int address) {
+        return (address >>> 24) + "." + (address >>> 16 & 0xff) + "." + (address >>> 8 & 0xff) + "." + (address & 0xff);
+    }
+}
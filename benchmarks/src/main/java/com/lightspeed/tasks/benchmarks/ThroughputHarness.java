@@ -0,0 +1,148 @@
+package com.lightspeed.tasks.benchmarks;
+
+import com.lightspeed.tasks.balance.BalancerManager;
+import com.lightspeed.tasks.data.AddressesResults;
+import com.lightspeed.tasks.libs.types.CounterTypes;
+import com.lightspeed.tasks.libs.types.ReaderTypes;
+import com.lightspeed.tasks.libs.types.ScanModeTypes;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the whole scan on the files of {@link DatasetGenerator} and checks the results against their exact counts,
+ * so a faster change that breaks the counting fails the run.
+ * <p>
+ * Usage: ThroughputHarness files [--mode QUEUE|FUSED] [--reader COPY|MAPPED] [--counter type] [--runs count]
+ * <p>
+ * Prints the GB/s, the lines/s, the peak resident memory and the peak direct memory of every run.
+ * The resident peak is reset before every run on Linux, where it can't be reset it is the peak of the whole process so far.
+ * The exit code is 1 if any result differs from the expected counts.
+ */
+public class ThroughputHarness {
+    /**
+     * An approximate counter passes within so many standard errors.
+     */
+    private static final double MAX_ERROR_DEVIATIONS = 4;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<Path> files = new ArrayList<>();
+        ScanModeTypes scanMode = ScanModeTypes.FUSED;
+        ReaderTypes readerType = ReaderTypes.COPY;
+        CounterTypes counterType = CounterTypes.AUTO;
+        int runs = 3;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--mode" -> scanMode = ScanModeTypes.valueOf(args[++i]);
+                case "--reader" -> readerType = ReaderTypes.valueOf(args[++i]);
+                case "--counter" -> counterType = CounterTypes.valueOf(args[++i]);
+                case "--runs" -> runs = Integer.parseInt(args[++i]);
+                default -> files.add(Paths.get(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            System.out.println("Usage: ThroughputHarness files [--mode QUEUE|FUSED] [--reader COPY|MAPPED] [--counter type] [--runs count]");
+            return;
+        }
+
+        boolean isFailed = false;
+        List<String> reports = new ArrayList<>();
+        for (Path file : files) {
+            Properties expected = new Properties();
+            try (Reader reader = Files.newBufferedReader(file.resolveSibling(file.getFileName() + DatasetGenerator.EXPECTED_SUFFIX))) {
+                expected.load(reader);
+            }
+            long expectedUniqueCount = Long.parseLong(expected.getProperty("uniqueCount"));
+            long expectedTotalCount = Long.parseLong(expected.getProperty("totalCount"));
+            long lineCount = Long.parseLong(expected.getProperty("lineCount"));
+            long size = Files.size(file);
+            for (int run = 1; run <= runs; run++) {
+                BalancerManager balancerManager = new BalancerManager.BalancerManagerBuilder(file.toString())
+                        .setScanMode(scanMode)
+                        .setReaderType(readerType)
+                        .setCounterType(counterType)
+                        .build();
+                AtomicLong peakDirectMemory = new AtomicLong();
+                AddressesResults addressesResults;
+                //VmHWM holds the peak of the process, the earlier runs and the data loading would hide the peak of this run
+                boolean isPeakReset = resetPeakResidentMemory();
+                long startTime = System.nanoTime();
+                try (balancerManager; ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor()) {
+                    sampler.scheduleAtFixedRate(() -> peakDirectMemory.accumulateAndGet(getDirectMemory(), Math::max), 0, 50, TimeUnit.MILLISECONDS);
+                    addressesResults = balancerManager.runScanner();
+                    sampler.shutdownNow();
+                }
+                double seconds = (System.nanoTime() - startTime) / 1e9;
+
+                boolean isUniqueValid = addressesResults.standardError() > 0
+                        ? Math.abs(addressesResults.countOfUniqueIPAddresses() - expectedUniqueCount) <= MAX_ERROR_DEVIATIONS * addressesResults.standardError() * expectedUniqueCount
+                        : addressesResults.countOfUniqueIPAddresses() == expectedUniqueCount;
+                boolean isValid = isUniqueValid && addressesResults.totalCountOfIPAddresses() == expectedTotalCount;
+                isFailed |= !isValid;
+                reports.add(String.format("%s run %d: %.2f GB/s, %.0f lines/s, %.2f s, %s %d MB, peak direct %d MB, unique %d/%d, total %d/%d %s",
+                        file.getFileName(), run, size / seconds / (1 << 30), lineCount / seconds, seconds,
+                        isPeakReset ? "peak RSS" : "process peak RSS", getPeakResidentMemory() >> 20, peakDirectMemory.get() >> 20,
+                        addressesResults.countOfUniqueIPAddresses(), expectedUniqueCount,
+                        addressesResults.totalCountOfIPAddresses(), expectedTotalCount, isValid ? "OK" : "FAILED"));
+            }
+        }
+        System.out.println("------------------------- < Throughput > -------------------------");
+        reports.forEach(System.out::println);
+        if (isFailed) {
+            System.exit(1);
+        }
+    }
+
+    private static long getDirectMemory() {
+        long used = 0;
+        for (BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            //the mapped chunks are in the page cache, only the allocated buffers are counted
+            if (bufferPool.getName().equals("direct")) {
+                used += bufferPool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Resets the peak resident set size to the current one, supported by Linux 4.0 and later.
+     *
+     * @return true if the peak is reset
+     */
+    private static boolean resetPeakResidentMemory() {
+        try {
+            Files.writeString(Paths.get("/proc/self/clear_refs"), "5");
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The peak resident set size (VmHWM) on Linux since the last reset, else -1
+     */
+    private static long getPeakResidentMemory() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
@@ -1,21 +1,131 @@
 package com.lightspeed.tasks;
 
 import com.lightspeed.tasks.balance.BalancerManager;
+import com.lightspeed.tasks.balance.BitmapExport;
+import com.lightspeed.tasks.cardinality.AddressBitmap;
+import com.lightspeed.tasks.cardinality.AddressIndex;
+import com.lightspeed.tasks.cardinality.AddressListWriter;
+import com.lightspeed.tasks.data.AddressOccurrence;
 import com.lightspeed.tasks.data.AddressesResults;
 import com.lightspeed.tasks.libs.Utils;
+import com.lightspeed.tasks.libs.types.ListFormatTypes;
 import com.lightspeed.tasks.libs.types.MemorySizeTypes;
 import com.lightspeed.tasks.libs.types.MemoryTypes;
+import com.lightspeed.tasks.libs.types.OccurrenceCounterTypes;
 import com.lightspeed.tasks.libs.types.PercentTypes;
+import com.lightspeed.tasks.libs.types.ScanModeTypes;
+import com.lightspeed.tasks.service.ScanService;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
-    public static void main(String[] args) {
-        Scanner in = new Scanner(System.in);
-        System.out.print("Please enter the file to read: ");
-        String pathFile = in.nextLine();
+    /**
+     * The count of scans the service runs at once, a scan uses every core already.
+     */
+    private static final int SERVICE_SCAN_COUNT = 2;
+
+    /**
+     * Usage: Main [input...] [--state stateFile] [--follow seconds] [--export bitmapFile] [--metrics jsonFile]
+     * or: Main --merge "parts/*.bitmap", to combine the exported bitmaps of several partitions
+     * or: Main --serve port [--output-dir directory], to take the scans over HTTP in a long-running process, see {@link ScanService},
+     * the export and list files of the scans are written only in the output directory
+     * The scan and the merge answer the queries [--contains address] [--count cidr] [--histogram prefixLength from 8 to 24]
+     * from the bitmap, ex. --count 10.0.0.0/8 --histogram 16, see {@link AddressIndex}.
+     * Both also write the distinct addresses as text with [--list textFile] [--list-format ADDRESSES|CIDR], see {@link AddressListWriter}.
+     * The scan reports the most frequent addresses with [--top count] [--top-counter OFF_HEAP|SKETCH], see {@link OccurrenceCounterTypes}.
+     * The input is a file, a directory, a glob or a list of them, see {@link Utils#resolveInputFiles(String)},
+     * quote a glob like "logs/*.txt" to pass it as it is, the files expanded by the shell are scanned together too,
+     * or {@link Utils#STANDARD_INPUT} to read the lines piped to the standard input.
+     * Without the input argument it is asked on the standard input.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        List<String> inputs = new ArrayList<>();
+        String stateFile = null;
+        long followSeconds = 0;
+        String exportFile = null;
+        String metricsFile = null;
+        String listFile = null;
+        ListFormatTypes listFormat = ListFormatTypes.ADDRESSES;
+        int topAddressCount = 0;
+        OccurrenceCounterTypes occurrenceCounterType = OccurrenceCounterTypes.AUTO;
+        boolean isMerge = false;
+        int servePort = -1;
+        String outputDirectory = null;
+        List<String> containsQueries = new ArrayList<>();
+        List<String> countQueries = new ArrayList<>();
+        int histogramPrefixLength = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--state" -> stateFile = args[++i];
+                case "--follow" -> followSeconds = Long.parseLong(args[++i]);
+                case "--export" -> exportFile = args[++i];
+                case "--metrics" -> metricsFile = args[++i];
+                case "--list" -> listFile = args[++i];
+                case "--list-format" -> listFormat = ListFormatTypes.valueOf(args[++i].toUpperCase());
+                case "--top" -> topAddressCount = Integer.parseInt(args[++i]);
+                case "--top-counter" -> occurrenceCounterType = OccurrenceCounterTypes.valueOf(args[++i].toUpperCase());
+                case "--merge" -> isMerge = true;
+                case "--serve" -> servePort = Integer.parseInt(args[++i]);
+                case "--output-dir" -> outputDirectory = args[++i];
+                case "--contains" -> containsQueries.add(args[++i]);
+                case "--count" -> countQueries.add(args[++i]);
+                case "--histogram" -> histogramPrefixLength = Integer.parseInt(args[++i]);
+                default -> inputs.add(args[i]);
+            }
+        }
+        boolean isIndexed = !containsQueries.isEmpty() || !countQueries.isEmpty() || histogramPrefixLength > 0;
+        if (servePort >= 0) {
+            try {
+                ScanService scanService = new ScanService(servePort, SERVICE_SCAN_COUNT, PercentTypes._80_,
+                        outputDirectory != null ? Path.of(outputDirectory) : null);
+                scanService.start();
+                System.out.println("Scan service on http://127.0.0.1:" + scanService.getPort() + "/scans");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            //The server threads keep the process running
+            return;
+        }
+        //Every positional argument is an input, ex. the files of a glob expanded by the shell
+        String pathFile = inputs.isEmpty() ? null : String.join(File.pathSeparator, inputs);
+        if (pathFile == null) {
+            Scanner in = new Scanner(System.in);
+            System.out.print("Please enter the file to read: ");
+            pathFile = in.nextLine();
+        }
+        if (isMerge) {
+            //The bitmap files are given like the scan input, ex. a directory or parts/*.bitmap
+            List<Path> bitmapFiles = Utils.resolveInputFiles(pathFile);
+            if (bitmapFiles.isEmpty()) {
+                System.out.println("Invalid file: " + pathFile);
+                return;
+            }
+            try {
+                if (isIndexed || listFile != null) {
+                    AddressBitmap addressBitmap = BitmapExport.merge(bitmapFiles, Runtime.getRuntime().availableProcessors());
+                    System.out.println("Address Results:" + BitmapExport.toResults(bitmapFiles, addressBitmap));
+                    if (isIndexed) {
+                        printQueries(new AddressIndex(addressBitmap), containsQueries, countQueries, histogramPrefixLength);
+                    }
+                    if (listFile != null) {
+                        long lineCount = AddressListWriter.write(Path.of(listFile), addressBitmap, listFormat);
+                        System.out.println("Written " + lineCount + " lines to " + listFile);
+                    }
+                } else {
+                    System.out.println("Address Results:" + BitmapExport.merge(bitmapFiles));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
         System.out.println("Preparing to scan the current file: " + pathFile);
-        if (!Utils.isValidFile(pathFile) | pathFile.isEmpty()) {
+        if (pathFile.isEmpty() || !pathFile.equals(Utils.STANDARD_INPUT) && Utils.resolveInputFiles(pathFile).isEmpty()) {
             System.out.println("Invalid file: " + pathFile);
         } else {
 
@@ -27,13 +137,40 @@ public class Main {
                     Utils.getMemory(MemoryTypes.FREE_SYSTEM_MEMORY, MemorySizeTypes.GB),
                     Utils.getMemory(MemoryTypes.TOTAL_SYSTEM_MEMORY, MemorySizeTypes.GB));
 
-            BalancerManager balancerManager = new BalancerManager.BalancerManagerBuilder(pathFile)
+            BalancerManager.BalancerManagerBuilder balancerManagerBuilder = new BalancerManager.BalancerManagerBuilder(pathFile)
                     .setGrabOfFreeMemoryPercent(PercentTypes._80_)
-                    .build();
+                    .setScanMode(ScanModeTypes.FUSED);
+            if (stateFile != null) {
+                balancerManagerBuilder.setIncrementalState(stateFile);
+            }
+            if (exportFile != null) {
+                balancerManagerBuilder.setExportFile(exportFile);
+            }
+            if (metricsFile != null) {
+                balancerManagerBuilder.setMetricsFile(metricsFile);
+            }
+            if (listFile != null) {
+                balancerManagerBuilder.setListFile(listFile, listFormat);
+            }
+            if (topAddressCount > 0) {
+                balancerManagerBuilder.setTopAddresses(topAddressCount, occurrenceCounterType);
+            }
+            balancerManagerBuilder.setIndexed(isIndexed);
+            BalancerManager balancerManager = balancerManagerBuilder.build();
+            if (followSeconds > 0) {
+                //Runs until the process is stopped
+                balancerManager.followScanner(followSeconds, addressesResults -> System.out.println("Address Results:" + addressesResults));
+            }
             long startTime = System.currentTimeMillis();
             // Wait for the task to be completed
             AddressesResults addressesResults = balancerManager.runScanner();
             System.out.println("Address Results:" + addressesResults);
+            for (AddressOccurrence addressOccurrence : addressesResults.topAddresses()) {
+                System.out.println(addressOccurrence.ipAddress() + " " + addressOccurrence.count());
+            }
+            if (isIndexed) {
+                printQueries(balancerManager.getAddressIndex(), containsQueries, countQueries, histogramPrefixLength);
+            }
             System.out.println("Program Completed !!");
 
             long endTime = System.currentTimeMillis();
@@ -46,4 +183,24 @@ public class Main {
             System.out.println("Spend time: " + Utils.convertToTime((endTime - startTime) / 1000));
         }
     }
-}
\ No newline at end of file
+
+    private static void printQueries(AddressIndex addressIndex, List<String> containsQueries, List<String> countQueries, int histogramPrefixLength) {
+        for (String address : containsQueries) {
+            long parsedAddress = Utils.ipToLong(address);
+            System.out.println("Seen " + address + ": " + (parsedAddress >= 0 && addressIndex.contains((int) parsedAddress)));
+        }
+        for (String cidr : countQueries) {
+            System.out.println("Distinct in " + cidr + ": " + addressIndex.count(cidr));
+        }
+        if (histogramPrefixLength > 0) {
+            int[] counts = addressIndex.histogram(histogramPrefixLength);
+            int shift = Integer.SIZE - histogramPrefixLength;
+            for (int i = 0; i < counts.length; i++) {
+                //only the ranges with addresses
+                if (counts[i] > 0) {
+                    System.out.println(Utils.longToIp((long) i << shift) + "/" + histogramPrefixLength + " " + counts[i]);
+                }
+            }
+        }
+    }
+}
@@ -1,44 +1,149 @@
 package com.lightspeed.tasks.balance;
 
+import com.lightspeed.tasks.cardinality.AdaptiveAddressSet;
+import com.lightspeed.tasks.cardinality.AddressBitmap;
+import com.lightspeed.tasks.cardinality.AddressBitmapPool;
+import com.lightspeed.tasks.cardinality.AddressCounter;
+import com.lightspeed.tasks.cardinality.AddressIndex;
+import com.lightspeed.tasks.cardinality.AddressListWriter;
+import com.lightspeed.tasks.cardinality.HyperLogLogCounter;
+import com.lightspeed.tasks.cardinality.OccurrenceCounter;
+import com.lightspeed.tasks.cardinality.OffHeapOccurrenceCounter;
+import com.lightspeed.tasks.cardinality.SketchOccurrenceCounter;
 import com.lightspeed.tasks.data.AddressesResults;
-import com.lightspeed.tasks.data.ParsingResult;
+import com.lightspeed.tasks.data.ChunkRange;
+import com.lightspeed.tasks.data.FileResult;
+import com.lightspeed.tasks.data.ScanProgress;
 import com.lightspeed.tasks.libs.InitConfig;
 import com.lightspeed.tasks.libs.Utils;
+import com.lightspeed.tasks.libs.types.CounterTypes;
+import com.lightspeed.tasks.libs.types.ListFormatTypes;
+import com.lightspeed.tasks.libs.types.MemorySizeTypes;
+import com.lightspeed.tasks.libs.types.MemoryTypes;
+import com.lightspeed.tasks.libs.types.OccurrenceCounterTypes;
 import com.lightspeed.tasks.libs.types.PercentTypes;
+import com.lightspeed.tasks.libs.types.ReaderTypes;
+import com.lightspeed.tasks.libs.types.ScanModeTypes;
+import com.lightspeed.tasks.metrics.ScanMetrics;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- *
+ * A scanner session, all its state belongs to the instance, so several managers can scan at the same time in one JVM.
+ * A manager runs one scan at a time, see {@link #runScanner()} and {@link #runScannerAsync()}.
+ * Its metrics stay registered in JMX from the first scan until the manager is closed.
  */
-public class BalancerManager {
-    private static final BlockingQueue<String> ipAddressesBlockingQueue = new ArrayBlockingQueue<>(InitConfig.DEFAULT.steamShareBlockSize());
-    private static final AtomicLong countOfUniqueIPAddresses = new AtomicLong(0);
-    private static final AtomicLong totalCountOfIPAddresses = new AtomicLong(0);
+public class BalancerManager implements AutoCloseable {
+    /**
+     * The upper limit of the reported most frequent addresses.
+     */
+    public static final int MAX_TOP_ADDRESS_COUNT = 10000;
+    private final BlockingQueue<int[]> ipAddressesBlockingQueue = new ArrayBlockingQueue<>(InitConfig.DEFAULT.steamShareBlockSize());
     private final PercentTypes lowerLimitOfFreeMemPercent;
     private final String fileName;
-    private final ConcurrentHashMap<Integer, ParsingResult> parsingResultMap = new ConcurrentHashMap<>();
+    private final List<Path> inputFiles;
     private final int optimalThreadPoolSize;
+    private final int maxWorkerCount;
+    private final boolean isConcurrencyControlled;
+    private final ScanModeTypes scanMode;
+    private final ReaderTypes readerType;
+    private final int readAheadCount;
+    private final int ioThreadCount;
+    private final long bufferMemoryBudget;
+    private final CounterTypes counterType;
+    private final int hyperLogLogPrecision;
+    private final String checkpointFile;
+    private final long checkpointIntervalSeconds;
+    private final String incrementalStateFile;
+    private final ReadableByteChannel inputChannel;
+    private final String exportFile;
+    private final String listFile;
+    private final ListFormatTypes listFormat;
+    private final String metricsFile;
+    private final boolean isIndexed;
+    private final int topAddressCount;
+    private final OccurrenceCounterTypes occurrenceCounterType;
+    private final int sketchWidthBits;
+    private final AddressBitmapPool addressBitmapPool;
+    private final Consumer<ScanProgress> progressListener;
+    private final long progressIntervalMillis;
+    private final ScanMetrics scanMetrics = new ScanMetrics();
+    private final AtomicBoolean isScanning = new AtomicBoolean(false);
+    //The first failure of a worker, a run with a failed part is not saved and not reported as results
+    private final AtomicReference<Throwable> scanFailure = new AtomicReference<>();
+    private IncrementalState incrementalState;
+    private AddressCounter addressCounter;
+    private OccurrenceCounter occurrenceCounter;
+    private volatile AddressIndex addressIndex;
 
     /**
      *
      */
     public static class BalancerManagerBuilder {
         private final String fileName;
+        private List<Path> inputFiles;
         private PercentTypes grabOfFreeMemoryPercent = PercentTypes._80_;
         private PercentTypes lowerLimitOfFreeMemPercent = PercentTypes.fromValue(100 - grabOfFreeMemoryPercent.getValue());
         private int optimalThreadPoolSize;
-        private int optimalThreadPoolReadCount = 100;
+        private int maxWorkerCount;
+        private int optimalThreadPoolReadCount = 0;
+        private ScanModeTypes scanMode = ScanModeTypes.QUEUE;
+        private ReaderTypes readerType = ReaderTypes.COPY;
+        private int readAheadCount = 4;
+        private int ioThreadCount = 2;
+        private long bufferMemoryBudget;
+        private CounterTypes counterType = CounterTypes.AUTO;
+        private int hyperLogLogPrecision = 14;
+        private String checkpointFile;
+        private long checkpointIntervalSeconds = 60;
+        private String incrementalStateFile;
+        private ReadableByteChannel inputChannel;
+        private String exportFile;
+        private String listFile;
+        private ListFormatTypes listFormat = ListFormatTypes.ADDRESSES;
+        private String metricsFile;
+        private boolean isIndexed;
+        private int topAddressCount = 0;
+        private OccurrenceCounterTypes occurrenceCounterType = OccurrenceCounterTypes.AUTO;
+        private int sketchWidthBits;
+        private AddressBitmapPool addressBitmapPool;
+        private Consumer<ScanProgress> progressListener;
+        private long progressIntervalMillis;
 
+        /**
+         *
+         * @param fileName A file, a directory, a glob or a list of them, see {@link Utils#resolveInputFiles(String)},
+         *                 or {@link Utils#STANDARD_INPUT} to read a pipe
+         */
         public BalancerManagerBuilder(String fileName) {
             this.fileName = fileName;
         }
 
+        /**
+         *
+         * @param fileNames The files to count into one result
+         */
+        public BalancerManagerBuilder(List<String> fileNames) {
+            this(String.join(File.pathSeparator, fileNames));
+        }
+
         /**
          *
          * @param grabOfFreeMemoryPercent The percentage of memory to allocate for all processes.
@@ -50,6 +155,8 @@ public class BalancerManager {
         }
 
         /**
+         * Probes the file before the scan and fixes the thread pool size, instead of tuning it
+         * by the throughput while the scan runs, see {@link ConcurrencyController}.
          *
          * @param optimalThreadPoolReadCount Count the number of times a file is read randomly to determine the optimal thread pool.
          * @return {@link BalancerManagerBuilder}
@@ -59,95 +166,725 @@ public class BalancerManager {
             return this;
         }
 
+        /**
+         *
+         * @param scanMode How the parsed addresses reach the bitmap, see {@link ScanModeTypes}
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setScanMode(ScanModeTypes scanMode) {
+            this.scanMode = scanMode;
+            return this;
+        }
+
+        /**
+         *
+         * @param readerType How the file chunks are loaded into memory, see {@link ReaderTypes}
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setReaderType(ReaderTypes readerType) {
+            this.readerType = readerType;
+            return this;
+        }
+
+        /**
+         * Selects the {@link ReaderTypes#READ_AHEAD} reader with the given limits.
+         *
+         * @param readAheadCount The count of chunks kept filled ahead of the parsing, default is 4
+         * @param ioThreadCount  The count of platform threads reading the chunks, default is 2
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setReadAhead(int readAheadCount, int ioThreadCount) {
+            if (readAheadCount < 1 || ioThreadCount < 1) {
+                throw new IllegalArgumentException();
+            }
+            this.readerType = ReaderTypes.READ_AHEAD;
+            this.readAheadCount = readAheadCount;
+            this.ioThreadCount = ioThreadCount;
+            return this;
+        }
+
+        /**
+         *
+         * @param counterType The structure used to count the unique addresses, see {@link CounterTypes}
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setCounterType(CounterTypes counterType) {
+            this.counterType = counterType;
+            return this;
+        }
+
+        /**
+         *
+         * @param hyperLogLogPrecision The count of index bits of the {@link CounterTypes#HYPERLOGLOG} sketch,
+         *                             the standard error is 1.04 / sqrt(2^precision), default is 14 (0.81%)
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setHyperLogLogPrecision(int hyperLogLogPrecision) {
+            if (hyperLogLogPrecision < HyperLogLogCounter.MIN_PRECISION || hyperLogLogPrecision > HyperLogLogCounter.MAX_PRECISION) {
+                throw new IllegalArgumentException();
+            }
+            this.hyperLogLogPrecision = hyperLogLogPrecision;
+            return this;
+        }
+
+        /**
+         * Periodically saves the progress, a restarted scan with the same checkpoint file continues from it.
+         * It requires the {@link ScanModeTypes#FUSED} mode and the exact bitmap counter.
+         *
+         * @param checkpointFile            The file to save the progress to, it is deleted when the scan completes
+         * @param checkpointIntervalSeconds The delay between two saves
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setCheckpoint(String checkpointFile, long checkpointIntervalSeconds) {
+            if (checkpointIntervalSeconds <= 0) {
+                throw new IllegalArgumentException();
+            }
+            this.checkpointFile = checkpointFile;
+            this.checkpointIntervalSeconds = checkpointIntervalSeconds;
+            return this;
+        }
+
+        /**
+         * Scans only the bytes appended since the previous run. The scanned offset and the bitmap are kept in the state file.
+         * It requires the exact bitmap counter.
+         *
+         * @param incrementalStateFile The file to keep the state of the growing input in
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setIncrementalState(String incrementalStateFile) {
+            this.incrementalStateFile = incrementalStateFile;
+            return this;
+        }
+
+        /**
+         * Scans a non-seekable input like a socket instead of the files, the file name is used only in the results.
+         * The channel is read until the end of the stream and is not closed.
+         *
+         * @param inputChannel The input to read sequentially
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setInputChannel(ReadableByteChannel inputChannel) {
+            this.inputChannel = inputChannel;
+            return this;
+        }
+
+        /**
+         * Saves the bitmap after the scan, the exports of several partitions are combined by {@link BitmapExport#merge(List)}.
+         * It requires the exact bitmap counter.
+         *
+         * @param exportFile The file to save the bitmap to
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setExportFile(String exportFile) {
+            this.exportFile = exportFile;
+            return this;
+        }
+
+        /**
+         * Writes the distinct addresses as sorted text after the scan, see {@link AddressListWriter}.
+         * It requires the exact bitmap counter.
+         *
+         * @param listFile   The text file to write
+         * @param listFormat {@link ListFormatTypes}
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setListFile(String listFile, ListFormatTypes listFormat) {
+            this.listFile = listFile;
+            this.listFormat = listFormat;
+            return this;
+        }
+
+        /**
+         * Writes the metrics of the pipeline stages as JSON after every run, see {@link ScanMetrics}.
+         *
+         * @param metricsFile The file to write the metrics to
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setMetricsFile(String metricsFile) {
+            this.metricsFile = metricsFile;
+            return this;
+        }
+
+        /**
+         * Keeps the bitmap after the scan for the queries of {@link #getAddressIndex()}, it is not returned to the bitmap pool.
+         * It requires the exact bitmap counter.
+         *
+         * @param isIndexed true to keep the bitmap
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setIndexed(boolean isIndexed) {
+            this.isIndexed = isIndexed;
+            return this;
+        }
+
+        /**
+         * Counts the occurrences of every address in the same pass and reports the most frequent ones
+         * in {@link AddressesResults#topAddresses()}. It can't be combined with the checkpoint or the incremental state,
+         * the counts are not saved.
+         *
+         * @param topAddressCount       The count of the most frequent addresses to report, from 1 to {@link #MAX_TOP_ADDRESS_COUNT}
+         * @param occurrenceCounterType {@link OccurrenceCounterTypes}
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setTopAddresses(int topAddressCount, OccurrenceCounterTypes occurrenceCounterType) {
+            if (topAddressCount < 1 || topAddressCount > MAX_TOP_ADDRESS_COUNT) {
+                throw new IllegalArgumentException("The count of the top addresses must be from 1 to " + MAX_TOP_ADDRESS_COUNT);
+            }
+            this.topAddressCount = topAddressCount;
+            this.occurrenceCounterType = occurrenceCounterType;
+            return this;
+        }
+
+        /**
+         * Takes the bitmap from the pool and returns it after the scan, instead of allocating a new one every scan.
+         * Not used with the incremental state, which keeps its bitmap between the runs.
+         *
+         * @param addressBitmapPool The pool, may be shared by several managers
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setAddressBitmapPool(AddressBitmapPool addressBitmapPool) {
+            this.addressBitmapPool = addressBitmapPool;
+            return this;
+        }
+
+        /**
+         * Reports the progress while the scan runs and once at the end, the listener is called from a scheduler thread.
+         *
+         * @param progressListener       Receives the progress
+         * @param progressIntervalMillis The delay between two reports
+         * @return {@link BalancerManagerBuilder}
+         */
+        public BalancerManagerBuilder setProgressListener(Consumer<ScanProgress> progressListener, long progressIntervalMillis) {
+            if (progressIntervalMillis <= 0) {
+                throw new IllegalArgumentException();
+            }
+            this.progressListener = progressListener;
+            this.progressIntervalMillis = progressIntervalMillis;
+            return this;
+        }
+
         public BalancerManager build() {
+            if (exportFile != null || listFile != null || isIndexed) {
+                if (counterType == CounterTypes.AUTO) {
+                    counterType = CounterTypes.BITMAP;
+                } else if (counterType != CounterTypes.BITMAP) {
+                    throw new IllegalStateException("The exports and the index require the BITMAP counter");
+                }
+            }
+            if (topAddressCount > 0 && (incrementalStateFile != null || checkpointFile != null)) {
+                throw new IllegalStateException("The occurrence counts can't be combined with the incremental state or the checkpoint");
+            }
+            if (inputChannel == null && Utils.STANDARD_INPUT.equals(fileName)) {
+                inputChannel = new FileInputStream(FileDescriptor.in).getChannel();
+            }
+            if (inputChannel != null) {
+                if (incrementalStateFile != null || checkpointFile != null) {
+                    throw new IllegalStateException("The incremental state and the checkpoint require a file");
+                }
+                //A stream can't be sampled, the parsing runs on every core
+                inputFiles = List.of();
+                optimalThreadPoolSize = Runtime.getRuntime().availableProcessors();
+                bufferMemoryBudget = (long) Utils.getMemory(MemoryTypes.FREE_SYSTEM_MEMORY, MemorySizeTypes.BY, grabOfFreeMemoryPercent);
+                reserveOccurrenceMemory();
+                return new BalancerManager(this);
+            }
+            inputFiles = Utils.resolveInputFiles(fileName);
+            if (inputFiles.isEmpty()) {
+                throw new IllegalArgumentException("No files to scan: " + fileName);
+            }
+            if ((inputFiles.size() > 1 || GzipMemberLoadBalancer.isGzip(inputFiles.getFirst())) && (incrementalStateFile != null || checkpointFile != null)) {
+                throw new IllegalStateException("The incremental state and the checkpoint support a single uncompressed file");
+            }
+            if (incrementalStateFile != null) {
+                if (checkpointFile != null) {
+                    throw new IllegalStateException("The incremental state can't be combined with the checkpoint");
+                }
+                if (counterType == CounterTypes.AUTO) {
+                    counterType = CounterTypes.BITMAP;
+                } else if (counterType != CounterTypes.BITMAP) {
+                    throw new IllegalStateException("The incremental state requires the BITMAP counter");
+                }
+            }
+            if (checkpointFile != null) {
+                //In the queue mode a completed chunk may still have addresses waiting in the queue
+                if (scanMode != ScanModeTypes.FUSED) {
+                    throw new IllegalStateException("The checkpoint requires the FUSED scan mode");
+                }
+                if (counterType == CounterTypes.AUTO) {
+                    counterType = CounterTypes.BITMAP;
+                } else if (counterType != CounterTypes.BITMAP) {
+                    throw new IllegalStateException("The checkpoint requires the BITMAP counter");
+                }
+            }
             this.lowerLimitOfFreeMemPercent = PercentTypes.fromValue(100 - grabOfFreeMemoryPercent.getValue());
-            optimalThreadPoolSize = Utils.calculateOptimalIOThreadCount(fileName, optimalThreadPoolReadCount);
+            if (optimalThreadPoolReadCount > 0) {
+                //The largest file is sampled once for all the inputs
+                Path sampleFile = inputFiles.stream().max(Comparator.comparingLong(path -> path.toFile().length())).orElseThrow();
+                optimalThreadPoolSize = Utils.calculateOptimalIOThreadCount(sampleFile.toString(), optimalThreadPoolReadCount);
+                maxWorkerCount = optimalThreadPoolSize;
+            } else {
+                //The scan starts at once with a worker per core, the count is tuned while it runs
+                optimalThreadPoolSize = Runtime.getRuntime().availableProcessors();
+                maxWorkerCount = optimalThreadPoolSize * InitConfig.DEFAULT.maxWorkersPerCore();
+            }
+            bufferMemoryBudget = (long) Utils.getMemory(MemoryTypes.FREE_SYSTEM_MEMORY, MemorySizeTypes.BY, grabOfFreeMemoryPercent);
+            reserveOccurrenceMemory();
             return new BalancerManager(this);
         }
+
+        /**
+         * Picks the occurrence counter by the memory budget and takes its memory from the budget of the buffers.
+         * The exact counters are picked when they take at most half of the budget, else the sketch gets
+         * a quarter of the budget, limited by the heap it is allocated in.
+         */
+        private void reserveOccurrenceMemory() {
+            if (topAddressCount == 0) {
+                return;
+            }
+            if (occurrenceCounterType == OccurrenceCounterTypes.AUTO) {
+                occurrenceCounterType = OffHeapOccurrenceCounter.MEMORY_SIZE <= bufferMemoryBudget / 2 ? OccurrenceCounterTypes.OFF_HEAP : OccurrenceCounterTypes.SKETCH;
+            }
+            if (occurrenceCounterType == OccurrenceCounterTypes.OFF_HEAP) {
+                bufferMemoryBudget = Math.max(bufferMemoryBudget - OffHeapOccurrenceCounter.MEMORY_SIZE, 0);
+            } else {
+                long sketchMemoryBudget = Math.min(bufferMemoryBudget / 4, Runtime.getRuntime().maxMemory() / 8);
+                long width = sketchMemoryBudget / SketchOccurrenceCounter.DEPTH / Integer.BYTES;
+                sketchWidthBits = Math.clamp(63 - Long.numberOfLeadingZeros(Math.max(width, 1)), SketchOccurrenceCounter.MIN_WIDTH_BITS, SketchOccurrenceCounter.MAX_WIDTH_BITS);
+            }
+        }
     }
 
     private BalancerManager(BalancerManagerBuilder builder) {
         this.fileName = builder.fileName;
+        this.inputFiles = builder.inputFiles;
         this.lowerLimitOfFreeMemPercent = builder.lowerLimitOfFreeMemPercent;
         this.optimalThreadPoolSize = builder.optimalThreadPoolSize;
+        this.maxWorkerCount = builder.maxWorkerCount;
+        this.isConcurrencyControlled = builder.optimalThreadPoolReadCount <= 0;
+        this.scanMode = builder.scanMode;
+        this.readerType = builder.readerType;
+        this.readAheadCount = builder.readAheadCount;
+        this.ioThreadCount = builder.ioThreadCount;
+        this.bufferMemoryBudget = builder.bufferMemoryBudget;
+        this.counterType = builder.counterType;
+        this.hyperLogLogPrecision = builder.hyperLogLogPrecision;
+        this.checkpointFile = builder.checkpointFile;
+        this.checkpointIntervalSeconds = builder.checkpointIntervalSeconds;
+        this.incrementalStateFile = builder.incrementalStateFile;
+        this.inputChannel = builder.inputChannel;
+        this.exportFile = builder.exportFile;
+        this.listFile = builder.listFile;
+        this.listFormat = builder.listFormat;
+        this.metricsFile = builder.metricsFile;
+        this.isIndexed = builder.isIndexed;
+        this.topAddressCount = builder.topAddressCount;
+        this.occurrenceCounterType = builder.occurrenceCounterType;
+        this.sketchWidthBits = builder.sketchWidthBits;
+        this.addressBitmapPool = builder.addressBitmapPool;
+        this.progressListener = builder.progressListener;
+        this.progressIntervalMillis = builder.progressIntervalMillis;
+    }
+
+    /**
+     * @return The metrics of the pipeline stages, also registered as the {@link ScanMetrics#getObjectName()} MBean
+     */
+    public ScanMetrics getScanMetrics() {
+        return scanMetrics;
     }
 
+    /**
+     * @return The index of the bitmap of the last completed scan, or null if the manager is not indexed.
+     * In the incremental mode it is valid until the next run.
+     */
+    public AddressIndex getAddressIndex() {
+        return addressIndex;
+    }
+
+    /**
+     * Drops the index and the bitmap of the last completed scan, they are left to the garbage collector
+     * once the queries in progress are done. Nothing happens while scanning or in the incremental mode.
+     */
+    public void releaseAddressIndex() {
+        if (isScanning.get() || incrementalState != null) {
+            return;
+        }
+        addressIndex = null;
+        addressCounter = null;
+    }
+
+    /**
+     * Runs the incremental scan again and again, every run reads only the newly appended lines.
+     *
+     * @param intervalSeconds The delay between two runs
+     * @param listener        Receives the totals after every run
+     * @throws InterruptedException when the follower is stopped
+     */
+    public void followScanner(long intervalSeconds, Consumer<AddressesResults> listener) throws InterruptedException {
+        if (incrementalStateFile == null) {
+            throw new IllegalStateException("The follower requires the incremental state");
+        }
+        while (!Thread.currentThread().isInterrupted()) {
+            listener.accept(runScanner());
+            TimeUnit.SECONDS.sleep(intervalSeconds);
+        }
+        throw new InterruptedException();
+    }
+
+    /**
+     * Runs the scan in a thread of its own. Cancelling the future interrupts the scan, the workers are stopped
+     * and the checkpoint, if any, is kept to continue from.
+     *
+     * @return The future results, completed exceptionally if the scan fails
+     */
+    public CompletableFuture<AddressesResults> runScannerAsync() {
+        CompletableFuture<AddressesResults> future = new CompletableFuture<>();
+        Thread scanThread = Thread.ofPlatform().name("scanner-session").unstarted(() -> {
+            try {
+                future.complete(runScanner());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        future.whenComplete((addressesResults, e) -> {
+            if (future.isCancelled()) {
+                scanThread.interrupt();
+            }
+        });
+        scanThread.start();
+        return future;
+    }
+
+    /**
+     * Runs the scan in the calling thread.
+     *
+     * @return The results of the scan
+     * @throws CancellationException if the thread is interrupted while scanning
+     * @throws IllegalStateException if the manager is already scanning
+     */
     public AddressesResults runScanner() {
-        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
-            long remainingSize = channel.size(); //get the total number of bytes in the file
+        if (!isScanning.compareAndSet(false, true)) {
+            throw new IllegalStateException("The scanner is already running");
+        }
+        try {
+            //The scheduler can read the metrics while the scan runs
+            scanMetrics.register();
+            scanFailure.set(null);
+            addressIndex = null;
+            if (topAddressCount > 0) {
+                occurrenceCounter = occurrenceCounterType == OccurrenceCounterTypes.OFF_HEAP
+                        ? new OffHeapOccurrenceCounter()
+                        : new SketchOccurrenceCounter(sketchWidthBits, topAddressCount);
+            }
+            AddressesResults addressesResults = inputChannel != null ? runStreamScanner() : runFileScanner();
+            if (occurrenceCounter != null) {
+                addressesResults = new AddressesResults(addressesResults.countOfUniqueIPAddresses(), addressesResults.totalCountOfIPAddresses(),
+                        addressesResults.standardError(), addressesResults.fileResults(), occurrenceCounter.getTopAddresses(topAddressCount));
+            }
+            if (isIndexed) {
+                addressIndex = new AddressIndex((AddressBitmap) addressCounter);
+            }
+            scanMetrics.scanCompleted();
+            if (metricsFile != null) {
+                try {
+                    Files.writeString(Paths.get(metricsFile), scanMetrics.toJson());
+                } catch (IOException e) {
+                    System.out.println("The metrics can't be written: " + e.getMessage());
+                }
+            }
+            return addressesResults;
+        } finally {
+            //The workers are stopped at this point, even after a failure
+            if (addressBitmapPool != null && !isIndexed && incrementalState == null && addressCounter instanceof AddressBitmap addressBitmap) {
+                addressBitmapPool.release(addressBitmap);
+                addressCounter = null;
+            }
+            if (occurrenceCounter != null) {
+                occurrenceCounter.close();
+                occurrenceCounter = null;
+            }
+            //A cancelled scan may leave batches no consumer has taken
+            ipAddressesBlockingQueue.clear();
+            isScanning.set(false);
+        }
+    }
+
+    /**
+     * Unregisters the metrics of the manager, the results and the index stay readable.
+     */
+    @Override
+    public void close() {
+        scanMetrics.unregister();
+    }
+
+    private AddressesResults runFileScanner() {
+        List<ScanInput> scanInputs = inputFiles.stream().map(ScanInput::new).toList();
+        long savedTotalCount = -1;
+        boolean isStateSaved = false;
+        try {
+            long startPointer = 0;
+            long endPointer = -1; //to the end of every file
+            if (incrementalStateFile != null) {
+                FileChannel channel = scanInputs.getFirst().getChannel();
+                String fileIdentity = IncrementalState.fileIdentity(inputFiles.getFirst());
+                //The state stays in memory between the runs of the same manager
+                if (incrementalState == null) {
+                    addressCounter = new AddressBitmap();
+                    incrementalState = IncrementalState.open(Paths.get(incrementalStateFile), fileIdentity, (AddressBitmap) addressCounter);
+                }
+                if (!incrementalState.isStateOf(fileIdentity)) {
+                    System.out.println("The file was rotated, starting from the beginning: " + fileName);
+                    addressCounter = new AddressBitmap();
+                    incrementalState.reset(fileIdentity);
+                } else if (channel.size() < incrementalState.getProcessedOffset()) {
+                    System.out.println("The file is shorter than the scanned part, starting from the beginning: " + fileName);
+                    addressCounter = new AddressBitmap();
+                    incrementalState.reset(fileIdentity);
+                }
+                //An unfinished run leaves its lines in the total, they are counted again by the next run
+                savedTotalCount = addressCounter.getTotalCount();
+                startPointer = incrementalState.getProcessedOffset();
+                //An unfinished last line is left for the next run
+                endPointer = ChunkPlanner.lastLineEnd(channel, startPointer, channel.size());
+                if (startPointer == endPointer) {
+                    return new AddressesResults(addressCounter.getUniqueCount(), addressCounter.getTotalCount());
+                }
+            } else {
+                long totalSize = 0;
+                for (Path inputFile : inputFiles) {
+                    totalSize += Files.size(inputFile) * (GzipMemberLoadBalancer.isGzip(inputFile) ? InitConfig.DEFAULT.gzipInflationRatio() : 1);
+                }
+                addressCounter = createAddressCounter(totalSize);
+            }
+            scanMetrics.scanStarted(addressCounter);
+            //In the fused mode the chunk workers mark the addresses themselves
+            CPUBalancer fusedBalancer = scanMode == ScanModeTypes.FUSED ? new CPUBalancer(addressCounter, occurrenceCounter) : null;
+            int consumerCount = scanMode == ScanModeTypes.FUSED ? 0 : optimalThreadPoolSize + 1;
             try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
-                for (int i = 0; i < optimalThreadPoolSize + 1; i++) {
-                    executor.submit(new CPUBalancer(ipAddressesBlockingQueue, countOfUniqueIPAddresses, totalCountOfIPAddresses));
+                for (int i = 0; i < consumerCount; i++) {
+                    executor.submit(new CPUBalancer(ipAddressesBlockingQueue, addressCounter, occurrenceCounter, scanMetrics));
                 }
                 long chunkSize = InitConfig.DEFAULT.fileReadChunkSize();
-                long chunkCount = Math.ceilDiv(remainingSize, chunkSize);
-                CountDownLatch countDownLatch = new CountDownLatch((int) chunkCount);
-                System.out.println("Optimal Thread Pool Count is: " + optimalThreadPoolSize);
-                try (InterruptionThreadPoolExecutor interruptionThreadPoolExecutor = InterruptionThreadPoolExecutor.newFixedThreadPool(optimalThreadPoolSize, Thread.ofVirtual().factory(), lowerLimitOfFreeMemPercent, countDownLatch)) {
-                    long startPoint = 0;//file pointer
-                    int i = 0; //loop counter
-                    while (remainingSize >= chunkSize) {
-                        interruptionThreadPoolExecutor.submit(new FileLoadBalancer(countDownLatch, channel, startPoint, Math.toIntExact(chunkSize), i++, ipAddressesBlockingQueue, parsingResultMap));
-                        remainingSize = remainingSize - chunkSize;
-                        startPoint = startPoint + chunkSize;
+                //One buffer per reader at most, fewer when the memory budget is smaller
+                //In the read ahead mode the filled buffers waiting for a worker come on top
+                int bufferCount = readerType == ReaderTypes.READ_AHEAD ? maxWorkerCount + readAheadCount : maxWorkerCount;
+                ChunkBufferPool chunkBufferPool = readerType != ReaderTypes.MAPPED ? ChunkBufferPool.fromMemoryBudget(bufferMemoryBudget, Math.toIntExact(chunkSize) + InitConfig.DEFAULT.maxLineLength(), bufferCount) : null;
+                ScanCheckpoint scanCheckpoint = checkpointFile == null ? null
+                        : ScanCheckpoint.open(Paths.get(checkpointFile), inputFiles.getFirst(), chunkSize, (AddressBitmap) addressCounter);
+                //The chunks of all files are planned upfront and share one worker pool
+                Map<ScanInput, List<ChunkRange>> chunksByInput = new LinkedHashMap<>();
+                //The gzip inputs are split into ranges, every range task finds and inflates the members starting in it
+                Map<ScanInput, List<ChunkRange>> gzipRangesByInput = new LinkedHashMap<>();
+                Map<ScanInput, GzipMemberStitcher> gzipStitchersByInput = new LinkedHashMap<>();
+                int chunkCount = 0;
+                long totalBytes = 0;
+                for (ScanInput scanInput : scanInputs) {
+                    FileChannel channel = scanInput.getChannel();
+                    if (GzipMemberLoadBalancer.isGzip(scanInput.getPath())) {
+                        List<ChunkRange> searchRanges = GzipMemberLoadBalancer.planSearchRanges(channel.size(), chunkSize);
+                        scanInput.setChunkCount(searchRanges.size());
+                        gzipRangesByInput.put(scanInput, searchRanges);
+                        gzipStitchersByInput.put(scanInput, new GzipMemberStitcher());
+                        chunkCount += searchRanges.size();
+                        totalBytes += channel.size();
+                    } else {
+                        List<ChunkRange> chunks = ChunkPlanner.planChunks(channel, startPointer, endPointer < 0 ? channel.size() : endPointer, chunkSize).stream()
+                                .filter(chunk -> scanCheckpoint == null || !scanCheckpoint.isCompleted(chunk.sequenceNumber()))
+                                .toList();
+                        scanInput.setChunkCount(chunks.size());
+                        chunksByInput.put(scanInput, chunks);
+                        chunkCount += chunks.size();
+                        totalBytes += chunks.stream().mapToLong(ChunkRange::size).sum();
                     }
-                    //loading the last remaining piece
-                    interruptionThreadPoolExecutor.submit(new FileLoadBalancer(countDownLatch, channel, startPoint, Math.toIntExact(remainingSize), i, ipAddressesBlockingQueue, parsingResultMap));
-                    countDownLatch.await();
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-
-                while (!ipAddressesBlockingQueue.isEmpty()) {
-                    System.out.println("Waiting... " + ipAddressesBlockingQueue.size());
+                    //The first worker of the file opens it again, so the planning doesn't hold a descriptor for every file
+                    scanInput.close();
                 }
-
-                //Preparing to join a split IPs
-                try (ExecutorService service = Executors.newVirtualThreadPerTaskExecutor()) {
-                    service.submit(() -> {
-                        for (int sequenceNumber = 0; sequenceNumber < parsingResultMap.size() - 1; sequenceNumber++) {
-                            ParsingResult currentParsingResult = parsingResultMap.get(sequenceNumber);
-
+                CountDownLatch countDownLatch = new CountDownLatch(chunkCount);
+                System.out.println((isConcurrencyControlled ? "Initial Thread Pool Count is: " : "Optimal Thread Pool Count is: ") + optimalThreadPoolSize);
+                try (InterruptionThreadPoolExecutor interruptionThreadPoolExecutor = InterruptionThreadPoolExecutor.newFixedThreadPool(optimalThreadPoolSize, Thread.ofVirtual().factory(), lowerLimitOfFreeMemPercent, countDownLatch, scanMetrics);
+                     ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+                     //The blocking reads run on platform threads, they don't pin the carriers of the virtual workers
+                     ExecutorService readAheadExecutor = readerType == ReaderTypes.READ_AHEAD
+                             ? Executors.newFixedThreadPool(ioThreadCount, Thread.ofPlatform().name("read-ahead-", 0).factory()) : null) {
+                    if (isConcurrencyControlled) {
+                        long intervalMillis = InitConfig.DEFAULT.concurrencyControlIntervalMillis();
+                        scheduler.scheduleAtFixedRate(new ConcurrencyController(interruptionThreadPoolExecutor, scanMetrics, 1, maxWorkerCount),
+                                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+                    }
+                    if (scanCheckpoint != null) {
+                        scheduler.scheduleWithFixedDelay(() -> {
                             try {
-
-                                if (sequenceNumber == 0) {
-                                    ipAddressesBlockingQueue.put(currentParsingResult.start());
-                                }
-
-                                ParsingResult nextParsingResult = parsingResultMap.get(sequenceNumber + 1);
-                                if (Utils.isValidIPAddress(currentParsingResult.end()) && Utils.isValidIPAddress(nextParsingResult.start())) {
-                                    ipAddressesBlockingQueue.put(nextParsingResult.start());
-                                    ipAddressesBlockingQueue.put(currentParsingResult.end());
-                                } else {
-                                    String margeIP = currentParsingResult.end() + nextParsingResult.start();
-                                    ipAddressesBlockingQueue.put(margeIP);
-                                }
-                                if (sequenceNumber + 1 == parsingResultMap.size() - 1) {
-                                    ipAddressesBlockingQueue.put(nextParsingResult.end());
-                                }
-                            } catch (InterruptedException e) {
-                                throw new RuntimeException(e);
+                                scanCheckpoint.save((AddressBitmap) addressCounter);
+                            } catch (IOException e) {
+                                System.out.println("\nThe checkpoint can't be saved: " + e.getMessage());
+                            }
+                        }, checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+                    }
+                    long scanChunkCount = chunkCount;
+                    long scanTotalBytes = totalBytes;
+                    scheduleProgress(scheduler, () -> new ScanProgress(scanChunkCount - countDownLatch.getCount(), scanChunkCount, scanMetrics.getBytesRead(), scanTotalBytes));
+                    Semaphore readAheadPermits = new Semaphore(readAheadCount);
+                    for (Map.Entry<ScanInput, List<ChunkRange>> entry : chunksByInput.entrySet()) {
+                        for (ChunkRange chunk : entry.getValue()) {
+                            if (readAheadExecutor != null) {
+                                readAheadExecutor.submit(new ReadAheadLoader(countDownLatch, entry.getKey(), chunk, ipAddressesBlockingQueue, fusedBalancer, chunkBufferPool, scanCheckpoint, scanMetrics, interruptionThreadPoolExecutor, readAheadPermits, scanFailure));
+                                continue;
                             }
+                            interruptionThreadPoolExecutor.submit(new FileLoadBalancer(countDownLatch, entry.getKey(), chunk, ipAddressesBlockingQueue, fusedBalancer, readerType, chunkBufferPool, scanCheckpoint, scanMetrics, scanFailure));
+                        }
+                    }
+                    for (Map.Entry<ScanInput, List<ChunkRange>> entry : gzipRangesByInput.entrySet()) {
+                        for (ChunkRange searchRange : entry.getValue()) {
+                            interruptionThreadPoolExecutor.submit(new GzipMemberLoadBalancer(countDownLatch, entry.getKey(), searchRange, ipAddressesBlockingQueue, fusedBalancer, gzipStitchersByInput.get(entry.getKey()), scanMetrics, scanFailure));
                         }
-                    }).get();
-                } catch (ExecutionException | InterruptedException e) {
-                    System.out.println(e.getMessage());
-                    throw new RuntimeException(e);
+                    }
+                    try {
+                        countDownLatch.await();
+                    } catch (InterruptedException e) {
+                        //The queued chunks are dropped, the interrupted status makes the closing executors stop their tasks
+                        interruptionThreadPoolExecutor.shutdownNow();
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                    for (Map.Entry<ScanInput, GzipMemberStitcher> entry : gzipStitchersByInput.entrySet()) {
+                        entry.getKey().addAddressCount(entry.getValue().stitch(new LineParser(ipAddressesBlockingQueue, fusedBalancer, scanMetrics)));
+                    }
+                    //Waits for a save in progress, so it can't write the checkpoint again after the delete
+                    scheduler.shutdown();
+                    scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                    //A failed run keeps the checkpoint, the completed chunks are not scanned again
+                    if (scanCheckpoint != null && scanFailure.get() == null) {
+                        scanCheckpoint.delete();
+                    }
+
+                    //Every consumer stops after taking its end of stream marker
+                    for (int i = 0; i < consumerCount; i++) {
+                        ipAddressesBlockingQueue.put(CPUBalancer.END_OF_STREAM);
+                    }
+                    reportProgress(new ScanProgress(chunkCount, chunkCount, scanMetrics.getBytesRead(), totalBytes));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("The scan is cancelled: " + fileName);
+                }
+                //Closing the executor waits until the consumers have drained the queue
+            }
+            throwIfScanFailed();
+            if (incrementalState != null) {
+                incrementalState.save(endPointer, (AddressBitmap) addressCounter);
+                isStateSaved = true;
+            }
+            exportBitmap();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (savedTotalCount >= 0 && !isStateSaved) {
+                //the bits of the unfinished run are set again by the next one, only the total would grow twice
+                ((AddressBitmap) addressCounter).addTotalCount(savedTotalCount - addressCounter.getTotalCount());
+            }
+            for (ScanInput scanInput : scanInputs) {
+                try {
+                    scanInput.close();
+                } catch (IOException e) {
+                    System.out.println("The file can't be closed: " + e.getMessage());
                 }
+            }
+        }
 
+        List<FileResult> fileResults = scanInputs.stream().map(ScanInput::toFileResult).toList();
+        return new AddressesResults(addressCounter.getUniqueCount(), addressCounter.getTotalCount(), addressCounter.getStandardError(), fileResults);
+    }
 
-                while (!ipAddressesBlockingQueue.isEmpty()) {
-                    System.out.println("Waiting... " + ipAddressesBlockingQueue.size());
+    private AddressesResults runStreamScanner() {
+        //The size of a stream is not known upfront
+        addressCounter = createAddressCounter(Long.MAX_VALUE);
+        scanMetrics.scanStarted(addressCounter);
+        CPUBalancer fusedBalancer = scanMode == ScanModeTypes.FUSED ? new CPUBalancer(addressCounter, occurrenceCounter) : null;
+        int consumerCount = scanMode == ScanModeTypes.FUSED ? 0 : optimalThreadPoolSize + 1;
+        long totalCount;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor()) {
+            scheduleProgress(scheduler, () -> new ScanProgress(scanMetrics.getChunksRead(), -1, scanMetrics.getBytesRead(), -1));
+            for (int i = 0; i < consumerCount; i++) {
+                executor.submit(new CPUBalancer(ipAddressesBlockingQueue, addressCounter, occurrenceCounter, scanMetrics));
+            }
+            int bufferSize = Math.toIntExact(InitConfig.DEFAULT.fileReadChunkSize());
+            //One buffer is filled while the others are parsed, two at least
+            long bufferCount = Math.min(bufferMemoryBudget / bufferSize, optimalThreadPoolSize + 1);
+            ChunkBufferPool chunkBufferPool = new ChunkBufferPool((int) Math.max(bufferCount, 2), bufferSize);
+            try {
+                totalCount = new StreamLoadBalancer(inputChannel, chunkBufferPool, ipAddressesBlockingQueue, fusedBalancer, scanMetrics, scanFailure).scan(executor);
+                for (int i = 0; i < consumerCount; i++) {
+                    ipAddressesBlockingQueue.put(CPUBalancer.END_OF_STREAM);
                 }
-
-                executor.shutdownNow();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("The scan is cancelled: " + fileName);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        throwIfScanFailed();
+        reportProgress(new ScanProgress(scanMetrics.getChunksRead(), scanMetrics.getChunksRead(), scanMetrics.getBytesRead(), scanMetrics.getBytesRead()));
+        try {
+            exportBitmap();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new AddressesResults(addressCounter.getUniqueCount(), addressCounter.getTotalCount(), addressCounter.getStandardError(),
+                List.of(new FileResult(fileName, totalCount)));
+    }
+
+    /**
+     * Called after the workers are stopped, before anything of the run is saved or reported.
+     *
+     * @throws RuntimeException with the first failure of a worker, a part of the input is not counted
+     */
+    private void throwIfScanFailed() {
+        Throwable failure = scanFailure.get();
+        if (failure != null) {
+            throw new RuntimeException("The scan failed, a part of the input is not counted: " + fileName + ", " + failure, failure);
+        }
+    }
 
-        return new AddressesResults(countOfUniqueIPAddresses.get(), totalCountOfIPAddresses.get());
+    private void exportBitmap() throws IOException {
+        if (exportFile != null) {
+            BitmapExport.write(Paths.get(exportFile), (AddressBitmap) addressCounter);
+        }
+        if (listFile != null) {
+            AddressListWriter.write(Paths.get(listFile), (AddressBitmap) addressCounter, listFormat);
+        }
     }
 
+    private void scheduleProgress(ScheduledExecutorService scheduler, Supplier<ScanProgress> progress) {
+        if (progressListener != null) {
+            scheduler.scheduleAtFixedRate(() -> reportProgress(progress.get()), progressIntervalMillis, progressIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
 
+    private void reportProgress(ScanProgress scanProgress) {
+        if (progressListener == null) {
+            return;
+        }
+        //A failing listener must not stop the scheduled reports
+        try {
+            progressListener.accept(scanProgress);
+        } catch (RuntimeException e) {
+            System.out.println("The progress listener failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param inputSize The count of bytes to scan
+     * @return The counter selected by the counter type, the sparse one for small inputs in the AUTO type
+     */
+    private AddressCounter createAddressCounter(long inputSize) {
+        CounterTypes selectedType = counterType;
+        if (selectedType == CounterTypes.AUTO) {
+            selectedType = inputSize < InitConfig.DEFAULT.adaptiveCounterMaxFileSize() ? CounterTypes.ADAPTIVE : CounterTypes.BITMAP;
+        }
+        return switch (selectedType) {
+            case ADAPTIVE -> new AdaptiveAddressSet();
+            case HYPERLOGLOG -> new HyperLogLogCounter(hyperLogLogPrecision);
+            default -> addressBitmapPool != null ? addressBitmapPool.acquire() : new AddressBitmap();
+        };
+    }
 }
@@ -0,0 +1,167 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.cardinality.AddressBitmap;
+import com.lightspeed.tasks.data.AddressesResults;
+import com.lightspeed.tasks.data.FileResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The bitmap of a scan saved to a file, so the scans of the partitions of an input can be merged into the exact result.
+ * The file holds a header with the total count and the non-empty containers written by {@link AddressBitmap#writeTo},
+ * a scan of a million addresses takes a few megabytes instead of 512 MB.
+ */
+public class BitmapExport {
+    private static final long MAGIC = 0x495053424D503031L; //IPSBMP01
+    private static final int HEADER_SIZE = 2 * Long.BYTES;
+
+    /**
+     * One container of an export file.
+     *
+     * @param buffer      The mapped export file
+     * @param offset      Index of the container data
+     * @param cardinality The count of addresses in the container
+     */
+    private record ContainerSlice(MappedByteBuffer buffer, int offset, int cardinality) {
+    }
+
+    /**
+     * Writes the bitmap to a temporary file and moves it over the export file.
+     *
+     * @param exportPath    The export file
+     * @param addressBitmap The bitmap of the completed scan
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Path exportPath, AddressBitmap addressBitmap) throws IOException {
+        Path temporaryPath = exportPath.resolveSibling(exportPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putLong(addressBitmap.getTotalCount());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            addressBitmap.writeTo(channel);
+        }
+        Files.move(temporaryPath, exportPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * ORs the export files into one bitmap. The files are indexed first, then every worker merges
+     * the containers of its own range of words from all files, so no two workers write the same word.
+     *
+     * @param exportPaths The export files of the partitions
+     * @param threadCount The count of merge workers
+     * @return The bitmap holding the addresses of all partitions
+     * @throws IOException if a file can't be read or is not an export file
+     */
+    public static AddressBitmap merge(List<Path> exportPaths, int threadCount) throws IOException {
+        AddressBitmap addressBitmap = new AddressBitmap();
+        //The containers of every key from all files
+        List<List<ContainerSlice>> containersByKey = new ArrayList<>(AddressBitmap.CONTAINER_COUNT);
+        for (int key = 0; key < AddressBitmap.CONTAINER_COUNT; key++) {
+            containersByKey.add(new ArrayList<>());
+        }
+        for (Path exportPath : exportPaths) {
+            addressBitmap.addTotalCount(index(exportPath, containersByKey));
+        }
+
+        int keysPerWorker = Math.ceilDiv(AddressBitmap.CONTAINER_COUNT, threadCount);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int firstKey = 0; firstKey < AddressBitmap.CONTAINER_COUNT; firstKey += keysPerWorker) {
+                int startKey = firstKey;
+                int endKey = Math.min(firstKey + keysPerWorker, AddressBitmap.CONTAINER_COUNT);
+                executor.submit(() -> {
+                    for (int key = startKey; key < endKey; key++) {
+                        for (ContainerSlice containerSlice : containersByKey.get(key)) {
+                            addressBitmap.orContainer(key, containerSlice.cardinality(), containerSlice.buffer(), containerSlice.offset());
+                        }
+                    }
+                });
+            }
+        }
+        return addressBitmap;
+    }
+
+    /**
+     * Merges the export files with a worker on every core.
+     *
+     * @param exportPaths The export files of the partitions
+     * @return The combined totals, the file results hold the total count of every partition
+     * @throws IOException if a file can't be read or is not an export file
+     */
+    public static AddressesResults merge(List<Path> exportPaths) throws IOException {
+        return toResults(exportPaths, merge(exportPaths, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param exportPaths   The export files of the partitions
+     * @param addressBitmap The bitmap merged from them
+     * @return The combined totals, the file results hold the total count of every partition
+     * @throws IOException if a file can't be read
+     */
+    public static AddressesResults toResults(List<Path> exportPaths, AddressBitmap addressBitmap) throws IOException {
+        List<FileResult> fileResults = new ArrayList<>();
+        for (Path exportPath : exportPaths) {
+            fileResults.add(new FileResult(exportPath.toString(), readTotalCount(exportPath)));
+        }
+        return new AddressesResults(addressBitmap.getUniqueCount(), addressBitmap.getTotalCount(), 0, fileResults);
+    }
+
+    /**
+     * Maps the export file and adds its containers to the lists of their keys.
+     *
+     * @return The total count of the export file
+     */
+    private static long index(Path exportPath, List<List<ContainerSlice>> containersByKey) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(exportPath, StandardOpenOption.READ)) {
+            //the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_SIZE + Integer.BYTES || buffer.getLong(0) != MAGIC) {
+            throw new IOException("Not a bitmap export file: " + exportPath);
+        }
+        int position = HEADER_SIZE;
+        while (true) {
+            if (position + Integer.BYTES > buffer.limit()) {
+                throw new IOException("Broken bitmap export file: " + exportPath);
+            }
+            int key = buffer.getInt(position);
+            if (key == AddressBitmap.END_OF_CONTAINERS) {
+                return buffer.getLong(Long.BYTES);
+            }
+            if (key < 0 || key >= AddressBitmap.CONTAINER_COUNT || position + AddressBitmap.CONTAINER_HEADER_SIZE > buffer.limit()) {
+                throw new IOException("Broken bitmap export file: " + exportPath);
+            }
+            int cardinality = buffer.getInt(position + Integer.BYTES);
+            int dataOffset = position + AddressBitmap.CONTAINER_HEADER_SIZE;
+            if (cardinality <= 0 || cardinality > AddressBitmap.CONTAINER_WORD_COUNT * Long.SIZE
+                    || dataOffset + AddressBitmap.getContainerDataSize(cardinality) > buffer.limit()) {
+                throw new IOException("Broken bitmap export file: " + exportPath);
+            }
+            containersByKey.get(key).add(new ContainerSlice(buffer, dataOffset, cardinality));
+            position = dataOffset + AddressBitmap.getContainerDataSize(cardinality);
+        }
+    }
+
+    private static long readTotalCount(Path exportPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(exportPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            return header.getLong(Long.BYTES);
+        }
+    }
+}
@@ -1,46 +1,100 @@
 package com.lightspeed.tasks.balance;
 
-import com.lightspeed.tasks.libs.Utils;
+import com.lightspeed.tasks.cardinality.AddressCounter;
+import com.lightspeed.tasks.cardinality.OccurrenceAccumulator;
+import com.lightspeed.tasks.cardinality.OccurrenceCounter;
+import com.lightspeed.tasks.metrics.ScanMetrics;
 
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicLongArray;
 
 public class CPUBalancer implements Runnable {
-    private static final long PART_VALUE = Math.ceilDiv(0xffffffffL, 63);
-    private static final AtomicLongArray dataBitArray = new AtomicLongArray((int) PART_VALUE);
-    private final BlockingQueue<String> ipAddressesBlockingQueue;
-    private final AtomicLong countOfUniqueIPAddresses;
-    private final AtomicLong totalCountOfIPAddresses;
+    /**
+     * Taken from the queue by a consumer when no more addresses will be sent.
+     */
+    public static final int[] END_OF_STREAM = new int[0];
+    private final BlockingQueue<int[]> ipAddressesBlockingQueue;
+    private final AddressCounter addressCounter;
+    private final OccurrenceCounter occurrenceCounter;
+    private final ScanMetrics scanMetrics;
 
-    public CPUBalancer(BlockingQueue<String> ipAddressesBlockingQueue, AtomicLong countOfUniqueIPAddresses, AtomicLong totalCountOfIPAddresses) {
+    /**
+     *
+     * @param ipAddressesBlockingQueue The share queue to take the batches from
+     * @param addressCounter           The counter to mark the addresses in
+     * @param occurrenceCounter        The counter of the occurrences of every address, or null if they are not counted
+     * @param scanMetrics              The metrics of the scan
+     */
+    public CPUBalancer(BlockingQueue<int[]> ipAddressesBlockingQueue, AddressCounter addressCounter, OccurrenceCounter occurrenceCounter, ScanMetrics scanMetrics) {
         this.ipAddressesBlockingQueue = ipAddressesBlockingQueue;
-        this.countOfUniqueIPAddresses = countOfUniqueIPAddresses;
-        this.totalCountOfIPAddresses = totalCountOfIPAddresses;
+        this.addressCounter = addressCounter;
+        this.occurrenceCounter = occurrenceCounter;
+        this.scanMetrics = scanMetrics;
+    }
+
+    public CPUBalancer(BlockingQueue<int[]> ipAddressesBlockingQueue, AddressCounter addressCounter, ScanMetrics scanMetrics) {
+        this(ipAddressesBlockingQueue, addressCounter, null, scanMetrics);
+    }
+
+    /**
+     * Creates a balancer without a queue, used by the chunk workers to mark the addresses themselves.
+     */
+    public CPUBalancer(AddressCounter addressCounter) {
+        this(addressCounter, null);
+    }
+
+    /**
+     * Creates a balancer without a queue, used by the chunk workers to mark and count the addresses themselves,
+     * every worker sums the occurrences in the accumulator of its {@link LineParser}.
+     */
+    public CPUBalancer(AddressCounter addressCounter, OccurrenceCounter occurrenceCounter) {
+        this(null, addressCounter, occurrenceCounter, null);
     }
 
     @Override
     public void run() {
-        String line;
+        int[] addresses;
+        long takeCount = 0;
+        long takeWaitNanos = 0;
+        AddressCounter workerCounter = newWorkerCounter();
+        OccurrenceAccumulator occurrenceAccumulator = newOccurrenceAccumulator();
         while (true) {
             try {
-                line = ipAddressesBlockingQueue.take();
-                this.setBitValue(Utils.ipToLong(line));
+                long startNanos = System.nanoTime();
+                addresses = ipAddressesBlockingQueue.take();
+                //the end of stream marker is not a batch, the wait for it is the idle time after the last one
+                if (addresses == END_OF_STREAM) {
+                    break;
+                }
+                takeWaitNanos += System.nanoTime() - startNanos;
+                takeCount++;
+                for (int address : addresses) {
+                    workerCounter.add(address);
+                    if (occurrenceAccumulator != null) {
+                        occurrenceAccumulator.add(address);
+                    }
+                }
             } catch (InterruptedException e) {
-                break; // FileTask has completed
+                break;
             }
         }
+        workerCounter.flush();
+        if (occurrenceAccumulator != null) {
+            occurrenceAccumulator.flush();
+        }
+        scanMetrics.queueTake(takeCount, takeWaitNanos);
     }
 
-    private void setBitValue(long ipValue) {
-        if (ipValue > 0) {
-            int segmentPosition = (int) Math.ceilDiv(ipValue, 63L) - 1;
-            long newData = (1L << (ipValue - segmentPosition * 63L) - 1);
-            if ((newData & dataBitArray.get(segmentPosition)) == 0) {
-                dataBitArray.getAndUpdate(segmentPosition, operand -> operand | newData);
-                this.countOfUniqueIPAddresses.getAndIncrement();
-            }
-            totalCountOfIPAddresses.getAndIncrement();
-        }
+    /**
+     * @return A new accumulator of the occurrences for one worker, or null if they are not counted
+     */
+    public OccurrenceAccumulator newOccurrenceAccumulator() {
+        return occurrenceCounter != null ? new OccurrenceAccumulator(occurrenceCounter) : null;
+    }
+
+    /**
+     * @return A new counter to mark the addresses of one worker with, flushed after its task
+     */
+    public AddressCounter newWorkerCounter() {
+        return addressCounter.newWorkerCounter();
     }
 }
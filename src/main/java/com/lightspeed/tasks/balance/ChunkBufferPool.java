@@ -0,0 +1,78 @@
+package com.lightspeed.tasks.balance;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of reusable direct buffers for the file chunks.
+ * The buffers are allocated lazily up to the capacity, after that a reader blocks until a buffer is returned.
+ */
+public class ChunkBufferPool {
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final AtomicInteger allocatedCount = new AtomicInteger(0);
+    private final int capacity;
+    private final int bufferSize;
+
+    /**
+     *
+     * @param capacity   The maximum count of buffers
+     * @param bufferSize The size of every buffer in bytes
+     */
+    public ChunkBufferPool(int capacity, int bufferSize) {
+        if (capacity < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        this.bufferSize = bufferSize;
+        this.freeBuffers = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     *
+     * @param memoryBudget The count of bytes that can be used by all buffers
+     * @param bufferSize   The size of every buffer in bytes
+     * @param maxCapacity  The upper limit of the buffer count
+     * @return {@link ChunkBufferPool} with as many buffers as fit in the memory budget
+     */
+    public static ChunkBufferPool fromMemoryBudget(long memoryBudget, int bufferSize, int maxCapacity) {
+        long capacity = Math.min(memoryBudget / bufferSize, maxCapacity);
+        return new ChunkBufferPool((int) Math.max(capacity, 1), bufferSize);
+    }
+
+    /**
+     * Takes a free buffer, blocks while every buffer is in use.
+     *
+     * @return cleared buffer
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (allocatedCount.getAndUpdate(count -> count < capacity ? count + 1 : count) < capacity) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return freeBuffers.take();
+    }
+
+    /**
+     * Returns the buffer to the pool and wakes up a waiting reader.
+     *
+     * @param buffer buffer taken by {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        freeBuffers.offer(buffer);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,119 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.data.ChunkRange;
+import com.lightspeed.tasks.libs.InitConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a file into chunks which contain only whole lines.
+ */
+public class ChunkPlanner {
+    private static final int PROBE_SIZE = 256;
+
+    /**
+     * Every boundary is moved from the fixed chunk offset to the byte after the next line separator.
+     * A line longer than {@link InitConfig#maxLineLength()} cannot hold an address, it is cut there and the rest of it
+     * is left out of the chunks, so its tail is not read as a line of its own.
+     *
+     * @param fileChannel The file to split
+     * @param chunkSize   The nominal size of a chunk
+     * @return The planned chunks in file order
+     * @throws IOException if the file can't be read
+     */
+    public static List<ChunkRange> planChunks(FileChannel fileChannel, long chunkSize) throws IOException {
+        return planChunks(fileChannel, 0, fileChannel.size(), chunkSize);
+    }
+
+    /**
+     * @param fileChannel  The file to split
+     * @param startPointer The first byte to plan from, it must be the beginning of a line
+     * @param endPointer   The byte to stop at (exclusive)
+     * @param chunkSize    The nominal size of a chunk
+     * @return The planned chunks in file order
+     * @throws IOException if the file can't be read
+     */
+    public static List<ChunkRange> planChunks(FileChannel fileChannel, long startPointer, long endPointer, long chunkSize) throws IOException {
+        List<ChunkRange> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        int sequenceNumber = 0;
+        while (startPointer < endPointer) {
+            long nominalEnd = startPointer + chunkSize;
+            long chunkEnd = endPointer;
+            long nextStartPointer = endPointer;
+            if (nominalEnd < endPointer) {
+                long searchLimit = Math.min(nominalEnd - 1 + InitConfig.DEFAULT.maxLineLength(), endPointer);
+                chunkEnd = nextLineStart(fileChannel, probe, nominalEnd - 1, searchLimit);
+                nextStartPointer = chunkEnd;
+                if (chunkEnd < 0) {
+                    //the last line of the range is whole without a separator, any other is too long and its rest is skipped
+                    chunkEnd = searchLimit;
+                    nextStartPointer = searchLimit == endPointer ? endPointer : nextLineStart(fileChannel, probe, searchLimit, endPointer);
+                    if (nextStartPointer < 0) {
+                        nextStartPointer = endPointer;
+                    }
+                }
+            }
+            chunks.add(new ChunkRange(sequenceNumber++, startPointer, Math.toIntExact(chunkEnd - startPointer)));
+            startPointer = nextStartPointer;
+        }
+        return chunks;
+    }
+
+    /**
+     * Finds the end of the last complete line, the bytes after it are an unfinished line of a growing file.
+     *
+     * @param fileChannel  The file to search
+     * @param startPointer The first byte of the range
+     * @param endPointer   The byte to stop at (exclusive)
+     * @return The position after the last line separator in the range, or {@code startPointer} if there is none
+     * @throws IOException if the file can't be read
+     */
+    public static long lastLineEnd(FileChannel fileChannel, long startPointer, long endPointer) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        long position = endPointer;
+        while (position > startPointer) {
+            int probeSize = (int) Math.min(probe.capacity(), position - startPointer);
+            probe.clear();
+            probe.limit(probeSize);
+            while (probe.hasRemaining() && fileChannel.read(probe, position - probeSize + probe.position()) > 0) {
+            }
+            for (int i = probe.position() - 1; i >= 0; i--) {
+                byte c = probe.get(i);
+                if (c == '\n' || c == '\r') {
+                    return position - probeSize + i + 1;
+                }
+            }
+            position -= probeSize;
+        }
+        return startPointer;
+    }
+
+    /**
+     * @param position    The first byte to search
+     * @param searchLimit The byte to stop the search at (exclusive)
+     * @return The position after the first line separator at or after {@code position}, or -1 if there is none before the limit
+     */
+    private static long nextLineStart(FileChannel fileChannel, ByteBuffer probe, long position, long searchLimit) throws IOException {
+        while (position < searchLimit) {
+            probe.clear();
+            probe.limit((int) Math.min(probe.capacity(), searchLimit - position));
+            int readCount = fileChannel.read(probe, position);
+            if (readCount <= 0) {
+                break;
+            }
+            for (int i = 0; i < readCount; i++) {
+                byte c = probe.get(i);
+                if (c == '\n' || c == '\r') {
+                    return position + i + 1;
+                }
+            }
+            position += readCount;
+        }
+        return -1;
+    }
+}
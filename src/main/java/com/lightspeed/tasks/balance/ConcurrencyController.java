@@ -0,0 +1,86 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.metrics.ScanMetrics;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Tunes the count of the chunk workers while the scan runs, instead of probing the file before it.
+ * Every period the read throughput is compared with the previous period (hill climbing):
+ * the size keeps moving in the same direction while the throughput grows, turns back when it drops
+ * and goes down when it stays flat, as fewer workers do the same work.
+ */
+public class ConcurrencyController implements Runnable {
+    /**
+     * A smaller change of the throughput is taken as noise.
+     */
+    private static final double NOISE_RATIO = 0.05;
+    private final ThreadPoolExecutor executor;
+    private final ScanMetrics scanMetrics;
+    private final int minWorkerCount;
+    private final int maxWorkerCount;
+    private long lastBytesRead;
+    private long lastNanos;
+    private double lastThroughput = -1;
+    private int direction = 1;
+
+    /**
+     *
+     * @param executor       The pool of the chunk workers
+     * @param scanMetrics    The metrics the read bytes are taken from
+     * @param minWorkerCount The lower limit of the workers
+     * @param maxWorkerCount The upper limit of the workers
+     */
+    public ConcurrencyController(ThreadPoolExecutor executor, ScanMetrics scanMetrics, int minWorkerCount, int maxWorkerCount) {
+        if (minWorkerCount < 1 || maxWorkerCount < minWorkerCount) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+        this.scanMetrics = scanMetrics;
+        this.minWorkerCount = minWorkerCount;
+        this.maxWorkerCount = maxWorkerCount;
+        this.lastBytesRead = scanMetrics.getBytesRead();
+        this.lastNanos = System.nanoTime();
+        scanMetrics.workerCountChanged(executor.getCorePoolSize());
+    }
+
+    @Override
+    public void run() {
+        long bytesRead = scanMetrics.getBytesRead();
+        long nanos = System.nanoTime();
+        double throughput = (double) (bytesRead - lastBytesRead) / (nanos - lastNanos);
+        lastBytesRead = bytesRead;
+        lastNanos = nanos;
+        //At the end of the scan fewer chunks are left than workers, the throughput says nothing about the size
+        if (executor.getQueue().isEmpty()) {
+            return;
+        }
+        if (lastThroughput >= 0) {
+            if (throughput < lastThroughput * (1 - NOISE_RATIO)) {
+                direction = -direction;
+            } else if (throughput <= lastThroughput * (1 + NOISE_RATIO)) {
+                direction = -1;
+            }
+        }
+        lastThroughput = throughput;
+
+        int workerCount = executor.getCorePoolSize();
+        int step = Math.max(1, workerCount / 4);
+        int nextWorkerCount = Math.clamp(workerCount + (long) direction * step, minWorkerCount, maxWorkerCount);
+        if (nextWorkerCount != workerCount) {
+            setWorkerCount(nextWorkerCount);
+        }
+    }
+
+    private void setWorkerCount(int workerCount) {
+        //The maximum size can't be below the core size at any moment
+        if (workerCount > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(workerCount);
+            executor.setCorePoolSize(workerCount);
+        } else {
+            executor.setCorePoolSize(workerCount);
+            executor.setMaximumPoolSize(workerCount);
+        }
+        scanMetrics.workerCountChanged(workerCount);
+    }
+}
@@ -1,32 +1,55 @@
 package com.lightspeed.tasks.balance;
 
-import com.lightspeed.tasks.data.ParsingResult;
-import com.lightspeed.tasks.libs.Utils;
+import com.lightspeed.tasks.data.ChunkRange;
+import com.lightspeed.tasks.libs.types.ReaderTypes;
+import com.lightspeed.tasks.metrics.ChunkParseEvent;
+import com.lightspeed.tasks.metrics.ChunkReadEvent;
+import com.lightspeed.tasks.metrics.ScanMetrics;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class FileLoadBalancer implements Runnable {
-    private final FileChannel fileChannel;
-    private final long startPointer;
-    private final int size;
-    private final int sequenceNumber;
-    private final BlockingQueue<String> ipAddressesBlockingQueue;
-    private final ConcurrentHashMap<Integer, ParsingResult> parsingResultMap;
-    private long rowCount = 0;
+    private final ScanInput scanInput;
+    private final ChunkRange chunk;
+    private final BlockingQueue<int[]> ipAddressesBlockingQueue;
+    private final CPUBalancer fusedBalancer;
+    private final ReaderTypes readerType;
+    private final ChunkBufferPool chunkBufferPool;
+    private final ScanCheckpoint scanCheckpoint;
+    private final ScanMetrics scanMetrics;
+    private final AtomicReference<Throwable> scanFailure;
     ByteBuffer buff;
     CountDownLatch countDownLatch;
 
-    public FileLoadBalancer(CountDownLatch countDownLatch, FileChannel fileChannel, long startPointer, int size, int sequenceNumber, BlockingQueue<String> ipAddressesBlockingQueue, ConcurrentHashMap<Integer, ParsingResult> parsingResultMap) {
-        this.fileChannel = fileChannel;
-        this.startPointer = startPointer;
-        this.size = size;
-        this.sequenceNumber = sequenceNumber;
+    /**
+     * Creates the task of a chunk already read by {@link ReadAheadLoader}.
+     *
+     * @param filledBuffer The buffer holding the chunk, it is returned to the pool after the parsing
+     */
+    public FileLoadBalancer(CountDownLatch countDownLatch, ScanInput scanInput, ChunkRange chunk, BlockingQueue<int[]> ipAddressesBlockingQueue, CPUBalancer fusedBalancer, ChunkBufferPool chunkBufferPool, ScanCheckpoint scanCheckpoint, ScanMetrics scanMetrics, AtomicReference<Throwable> scanFailure, ByteBuffer filledBuffer) {
+        this(countDownLatch, scanInput, chunk, ipAddressesBlockingQueue, fusedBalancer, ReaderTypes.READ_AHEAD, chunkBufferPool, scanCheckpoint, scanMetrics, scanFailure);
+        this.buff = filledBuffer;
+    }
+
+    /**
+     * @param scanFailure Keeps the first failure of the chunks, the scan fails with it after all chunks are done
+     */
+    public FileLoadBalancer(CountDownLatch countDownLatch, ScanInput scanInput, ChunkRange chunk, BlockingQueue<int[]> ipAddressesBlockingQueue, CPUBalancer fusedBalancer, ReaderTypes readerType, ChunkBufferPool chunkBufferPool, ScanCheckpoint scanCheckpoint, ScanMetrics scanMetrics, AtomicReference<Throwable> scanFailure) {
+        this.scanInput = scanInput;
+        this.chunk = chunk;
         this.ipAddressesBlockingQueue = ipAddressesBlockingQueue;
-        this.parsingResultMap = parsingResultMap;
+        this.fusedBalancer = fusedBalancer;
+        this.readerType = readerType;
+        this.chunkBufferPool = chunkBufferPool;
+        this.scanCheckpoint = scanCheckpoint;
+        this.scanMetrics = scanMetrics;
+        this.scanFailure = scanFailure;
         Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
         this.countDownLatch = countDownLatch;
     }
@@ -34,53 +57,81 @@ public class FileLoadBalancer implements Runnable {
     @Override
     public void run() {
         try {
-            //allocate memory
-            buff = ByteBuffer.allocateDirect(size);
-
-            //Read file chunk to RAM
-            fileChannel.read(buff, startPointer);
-            buff.flip();
-
-            while (buff.hasRemaining()) {
-                StringBuilder ip = new StringBuilder();
-                char c = (char) buff.get();
-                while (c != '\n' && c != '\r') {
-                    ip.append(c);
-                    if (!buff.hasRemaining()) {
-                        break;
-                    }
-                    c = (char) buff.get();
-                }
-                if (!ip.isEmpty()) {
-                    rowCount++;
-                    boolean isValidIp = Utils.isValidIPAddress(ip.toString());
-                    if (!isValidIp) {
-                        brokenIpStore(ip.toString());
-                    } else {
-                        if (!brokenIpStore(ip.toString())) {
-                            ipAddressesBlockingQueue.put(ip.toString());
-                        }
-                    }
-                }
+            //In the read ahead mode the chunk is already in the buffer
+            if (readerType != ReaderTypes.READ_AHEAD) {
+                buff = readChunk(scanInput, chunk, readerType, chunkBufferPool, scanMetrics);
             }
-            buff.clear();
 
-            this.countDownLatch.countDown();
+            //the chunk holds only whole lines
+            ChunkParseEvent chunkParseEvent = new ChunkParseEvent();
+            chunkParseEvent.begin();
+            LineParser lineParser = new LineParser(ipAddressesBlockingQueue, fusedBalancer, scanMetrics);
+            lineParser.parseLines(buff, 0, buff.limit());
+            chunkParseEvent.end();
+            if (chunkParseEvent.shouldCommit()) {
+                chunkParseEvent.lines = lineParser.getLineCount();
+                chunkParseEvent.invalidLines = lineParser.getInvalidLineCount();
+                chunkParseEvent.commit();
+            }
+            lineParser.flush();
+            long addressCount = lineParser.getAddressCount();
+            if (scanCheckpoint != null) {
+                scanCheckpoint.chunkCompleted(chunk.sequenceNumber(), addressCount);
+            }
+            scanInput.chunkCompleted(addressCount);
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            //the scan is cancelled
         } catch (Exception e) {
-            e.printStackTrace();
+            scanFailure.compareAndSet(null, e);
+        } finally {
+            if (buff != null && readerType != ReaderTypes.MAPPED) {
+                chunkBufferPool.release(buff);
+            }
+            //a failed chunk fails the scan after the others, it must not wait for it
+            this.countDownLatch.countDown();
         }
     }
 
-    private boolean brokenIpStore(String ip) {
-        if (rowCount == 1) {
-            parsingResultMap.putIfAbsent(sequenceNumber, new ParsingResult(ip, ""));
-            parsingResultMap.computeIfPresent(sequenceNumber, (k, currentParsingResult) -> new ParsingResult(ip, currentParsingResult.end()));
-            return true;
-        } else if (!buff.hasRemaining()) {
-            parsingResultMap.putIfAbsent(sequenceNumber, new ParsingResult("", ip));
-            parsingResultMap.computeIfPresent(sequenceNumber, (k, currentParsingResult) -> new ParsingResult(currentParsingResult.start(), ip));
-            return true;
+    /**
+     * @param readerType {@link ReaderTypes#MAPPED} to map the chunk, else it is copied to a pool buffer
+     * @return The buffer holding the chunk from index 0 to its limit
+     * @throws IOException          if the file can't be read
+     * @throws InterruptedException if interrupted while waiting for a free buffer
+     */
+    static ByteBuffer readChunk(ScanInput scanInput, ChunkRange chunk, ReaderTypes readerType, ChunkBufferPool chunkBufferPool, ScanMetrics scanMetrics) throws IOException, InterruptedException {
+        FileChannel fileChannel = scanInput.getChannel();
+        ChunkReadEvent chunkReadEvent = new ChunkReadEvent();
+        chunkReadEvent.begin();
+        long readStartNanos = System.nanoTime();
+        ByteBuffer buffer;
+        if (readerType == ReaderTypes.MAPPED) {
+            //Map file chunk, the bytes are parsed straight from the page cache
+            buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, chunk.startPointer(), chunk.size());
+        } else {
+            //take a free buffer, blocks while all buffers are in use
+            buffer = chunkBufferPool.acquire();
+            try {
+                buffer.limit(chunk.size());
+
+                //Read file chunk to RAM
+                while (buffer.hasRemaining() && fileChannel.read(buffer, chunk.startPointer() + buffer.position()) >= 0) {
+                }
+                buffer.flip();
+            } catch (IOException | RuntimeException e) {
+                //the caller never gets the buffer, so it goes back to the pool here
+                chunkBufferPool.release(buffer);
+                throw e;
+            }
+        }
+        //a mapped chunk is loaded later by the page faults of the parsing
+        scanMetrics.chunkRead(buffer.limit(), System.nanoTime() - readStartNanos);
+        chunkReadEvent.end();
+        if (chunkReadEvent.shouldCommit()) {
+            chunkReadEvent.file = scanInput.getPath().toString();
+            chunkReadEvent.offset = chunk.startPointer();
+            chunkReadEvent.bytes = buffer.limit();
+            chunkReadEvent.commit();
         }
-        return false;
+        return buffer;
     }
 }
@@ -0,0 +1,292 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.data.ChunkRange;
+import com.lightspeed.tasks.libs.IPAddressParser;
+import com.lightspeed.tasks.metrics.ScanMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates the members of a multi-member gzip file that start in one range of the file and parses the lines
+ * straight from the inflated buffer. The member start offsets are not stored in the gzip format, so every gzip header
+ * signature is a candidate. The file is split into ranges upfront without reading it, every task searches its own range
+ * for the signatures and inflates the candidates it finds, a member may reach past the end of the range.
+ * A candidate inside the compressed data fails to inflate or its CRC32 doesn't match,
+ * its addresses are kept back until the member is verified and then dropped.
+ * The bytes before the first and after the last line separator are left to {@link GzipMemberStitcher},
+ * as a line may be split between two members.
+ */
+public class GzipMemberLoadBalancer implements Runnable {
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+    private static final int SEARCH_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * A longer line is never an address, only its beginning is kept to know that.
+     */
+    private static final int LONG_LINE_SIZE = 16;
+    /**
+     * After so many addresses the member is inflating without errors and is taken as a real one.
+     */
+    private static final int MAX_STAGED_COUNT = 1 << 20;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private final CountDownLatch countDownLatch;
+    private final ScanInput scanInput;
+    private final ChunkRange searchRange;
+    private final BlockingQueue<int[]> ipAddressesBlockingQueue;
+    private final CPUBalancer fusedBalancer;
+    private final GzipMemberStitcher gzipMemberStitcher;
+    private final ScanMetrics scanMetrics;
+    private final AtomicReference<Throwable> scanFailure;
+
+    public GzipMemberLoadBalancer(CountDownLatch countDownLatch, ScanInput scanInput, ChunkRange searchRange, BlockingQueue<int[]> ipAddressesBlockingQueue, CPUBalancer fusedBalancer, GzipMemberStitcher gzipMemberStitcher, ScanMetrics scanMetrics, AtomicReference<Throwable> scanFailure) {
+        this.countDownLatch = countDownLatch;
+        this.scanInput = scanInput;
+        this.searchRange = searchRange;
+        this.ipAddressesBlockingQueue = ipAddressesBlockingQueue;
+        this.fusedBalancer = fusedBalancer;
+        this.gzipMemberStitcher = gzipMemberStitcher;
+        this.scanMetrics = scanMetrics;
+        this.scanFailure = scanFailure;
+    }
+
+    /**
+     * @param path Input file
+     * @return true if the file is gzip-compressed
+     */
+    public static boolean isGzip(Path path) {
+        return path.getFileName().toString().endsWith(".gz");
+    }
+
+    /**
+     * @param fileSize  The size of the gzip file
+     * @param rangeSize The nominal size of a range
+     * @return The ranges to search for the members in, they don't depend on the content of the file
+     */
+    public static List<ChunkRange> planSearchRanges(long fileSize, long rangeSize) {
+        List<ChunkRange> searchRanges = new ArrayList<>();
+        int sequenceNumber = 0;
+        for (long startPointer = 0; startPointer < fileSize; startPointer += rangeSize) {
+            searchRanges.add(new ChunkRange(sequenceNumber++, startPointer, Math.toIntExact(Math.min(rangeSize, fileSize - startPointer))));
+        }
+        return searchRanges;
+    }
+
+    /**
+     * @param fileChannel  The gzip file
+     * @param startPointer The first byte a signature may start at
+     * @param endPointer   The byte after the last one a signature may start at, the signature itself may end after it
+     * @return The offsets of every gzip header signature in the range, the real members and some false candidates
+     * @throws IOException if the file can't be read
+     */
+    public static List<Long> findMemberCandidates(FileChannel fileChannel, long startPointer, long endPointer) throws IOException {
+        List<Long> candidates = new ArrayList<>();
+        ByteBuffer block = ByteBuffer.allocateDirect(SEARCH_BUFFER_SIZE);
+        long searchEnd = Math.min(endPointer + 3, fileChannel.size());
+        long position = startPointer;
+        while (position < searchEnd) {
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), searchEnd - position));
+            while (block.hasRemaining() && fileChannel.read(block, position + block.position()) > 0) {
+            }
+            int count = block.position();
+            for (int i = 0; i + 3 < count && position + i < endPointer; i++) {
+                if (block.get(i) == (byte) 0x1f && block.get(i + 1) == (byte) 0x8b && block.get(i + 2) == 8 && (block.get(i + 3) & 0xe0) == 0) {
+                    candidates.add(position + i);
+                }
+            }
+            if (position + count >= searchEnd || count <= 3) {
+                break;
+            }
+            //the next block overlaps by 3 bytes, so a signature on the edge is not missed
+            position += count - 3;
+        }
+        return candidates;
+    }
+
+    @Override
+    public void run() {
+        long addressCount = 0;
+        try {
+            FileChannel fileChannel = scanInput.getChannel();
+            for (long memberOffset : findMemberCandidates(fileChannel, searchRange.startPointer(), searchRange.startPointer() + searchRange.size())) {
+                LineParser lineParser = new LineParser(ipAddressesBlockingQueue, fusedBalancer, scanMetrics);
+                scanMember(fileChannel, memberOffset, lineParser);
+                addressCount += lineParser.getAddressCount();
+            }
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            //the scan is cancelled
+        } catch (Exception e) {
+            scanFailure.compareAndSet(null, e);
+        } finally {
+            try {
+                scanInput.chunkCompleted(addressCount);
+            } catch (Exception e) {
+                scanFailure.compareAndSet(null, e);
+            }
+            countDownLatch.countDown();
+        }
+    }
+
+    /**
+     * Inflates the candidate, its addresses are passed on only if it is a member.
+     */
+    private void scanMember(FileChannel fileChannel, long memberOffset, LineParser lineParser) throws IOException, InterruptedException {
+        lineParser.stage();
+        boolean isCommitted = false;
+        Inflater inflater = new Inflater(true);
+        try {
+            ByteBuffer input = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE);
+            long inputPosition = memberOffset + read(fileChannel, input, memberOffset);
+            input.flip();
+            int headerLength = headerLength(input);
+            if (headerLength < 0) {
+                return;
+            }
+            input.position(headerLength);
+            inflater.setInput(input);
+
+            ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+            CRC32 crc32 = new CRC32();
+            long outputSize = 0;
+            byte[] head = null; //the bytes before the first line separator
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    input.clear();
+                    int readCount = read(fileChannel, input, inputPosition);
+                    if (readCount <= 0) {
+                        return; //truncated member
+                    }
+                    inputPosition += readCount;
+                    input.flip();
+                    inflater.setInput(input);
+                }
+                int start = output.position();
+                int inflatedCount = inflater.inflate(output);
+                if (inflatedCount == 0 && inflater.needsDictionary()) {
+                    return;
+                }
+                crc32.update(output.slice(start, inflatedCount));
+                outputSize += inflatedCount;
+
+                int end = output.position();
+                int from = 0;
+                if (head == null) {
+                    int separator = IPAddressParser.nextLineEnd(output, start, end);
+                    if (separator < end) {
+                        head = new byte[separator];
+                        output.get(0, head);
+                        from = separator + 1;
+                    }
+                }
+                if (head != null) {
+                    int lastSeparator = IPAddressParser.lastLineEnd(output, from, end);
+                    if (lastSeparator >= 0) {
+                        lineParser.parseLines(output, from, lastSeparator);
+                        from = lastSeparator + 1;
+                    }
+                    //the unfinished line is moved to the beginning
+                    output.limit(end).position(from);
+                    output.compact();
+                }
+                if (!output.hasRemaining()) {
+                    output.position(LONG_LINE_SIZE);
+                }
+                if (!isCommitted && lineParser.getStagedCount() >= MAX_STAGED_COUNT) {
+                    lineParser.commit();
+                    isCommitted = true;
+                }
+            }
+
+            //Verify the member by the trailer: CRC32 and the uncompressed size modulo 2^32
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            read(fileChannel, trailer, memberOffset + headerLength + inflater.getBytesRead());
+            if (trailer.position() < trailer.capacity()
+                    || trailer.getInt(0) != (int) crc32.getValue() || trailer.getInt(4) != (int) outputSize) {
+                if (isCommitted) {
+                    System.out.println("\nThe gzip member at " + memberOffset + " is broken after its addresses were counted: " + scanInput.getPath());
+                }
+                return;
+            }
+            byte[] rest = new byte[output.position()];
+            output.get(0, rest);
+            if (head == null) {
+                gzipMemberStitcher.addMember(memberOffset, rest, new byte[0], false);
+            } else {
+                gzipMemberStitcher.addMember(memberOffset, head, rest, true);
+            }
+            lineParser.commit();
+            isCommitted = true;
+            //the read time of a member is a part of its inflate time, only the bytes are counted
+            scanMetrics.chunkRead(headerLength + inflater.getBytesRead() + trailer.capacity(), 0);
+        } catch (DataFormatException e) {
+            //not a member, the signature was found inside the compressed data
+            if (isCommitted) {
+                System.out.println("\nThe gzip member at " + memberOffset + " is broken after its addresses were counted: " + scanInput.getPath());
+            }
+        } finally {
+            inflater.end();
+            lineParser.discard();
+            lineParser.flush();
+        }
+    }
+
+    /**
+     * @return The header length, or -1 if it is not a valid gzip member header
+     */
+    private static int headerLength(ByteBuffer input) {
+        int limit = input.limit();
+        if (limit < 10 || input.get(0) != (byte) 0x1f || input.get(1) != (byte) 0x8b || input.get(2) != 8) {
+            return -1;
+        }
+        int flags = input.get(3) & 0xff;
+        if ((flags & 0xe0) != 0) {
+            return -1;
+        }
+        int position = 10;
+        if ((flags & FEXTRA) != 0) {
+            if (position + 2 > limit) {
+                return -1;
+            }
+            position += 2 + ((input.get(position) & 0xff) | (input.get(position + 1) & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (position < limit && input.get(position) != 0) {
+                position++;
+            }
+            position++;
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (position < limit && input.get(position) != 0) {
+                position++;
+            }
+            position++;
+        }
+        if ((flags & FHCRC) != 0) {
+            position += 2;
+        }
+        return position <= limit ? position : -1;
+    }
+
+    private static int read(FileChannel fileChannel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining() && fileChannel.read(buffer, position + buffer.position() - start) > 0) {
+        }
+        return buffer.position() - start;
+    }
+}
@@ -0,0 +1,65 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.libs.InitConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Joins the lines split between the members of a gzip file. Every verified member leaves the bytes
+ * before its first and after its last line separator, they are joined in the member order after all members are inflated.
+ */
+public class GzipMemberStitcher {
+    private final ConcurrentSkipListMap<Long, MemberEdges> members = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param head         The bytes before the first line separator, or all bytes if there is no separator
+     * @param tail         The bytes after the last line separator
+     * @param hasSeparator true if the member has at least one line separator
+     */
+    private record MemberEdges(byte[] head, byte[] tail, boolean hasSeparator) {
+    }
+
+    /**
+     * @param memberOffset The offset of the member in the file
+     * @param head         The bytes before the first line separator, or all bytes if there is no separator
+     * @param tail         The bytes after the last line separator
+     * @param hasSeparator true if the member has at least one line separator
+     */
+    public void addMember(long memberOffset, byte[] head, byte[] tail, boolean hasSeparator) {
+        members.put(memberOffset, new MemberEdges(head, tail, hasSeparator));
+    }
+
+    /**
+     * @param lineParser The parser to pass the joined lines to
+     * @return The count of the valid addresses in the joined lines
+     * @throws InterruptedException if interrupted while waiting for the share queue
+     */
+    public long stitch(LineParser lineParser) throws InterruptedException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (MemberEdges memberEdges : members.values()) {
+            append(line, memberEdges.head());
+            if (memberEdges.hasSeparator()) {
+                parse(lineParser, line);
+                line.reset();
+                append(line, memberEdges.tail());
+            }
+        }
+        parse(lineParser, line);
+        lineParser.flush();
+        return lineParser.getAddressCount();
+    }
+
+    private static void append(ByteArrayOutputStream line, byte[] bytes) {
+        //a longer line is never an address, there is no need to keep all of it
+        if (line.size() <= InitConfig.DEFAULT.maxLineLength()) {
+            line.writeBytes(bytes);
+        }
+    }
+
+    private static void parse(LineParser lineParser, ByteArrayOutputStream line) throws InterruptedException {
+        byte[] bytes = line.toByteArray();
+        lineParser.parseLines(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+}
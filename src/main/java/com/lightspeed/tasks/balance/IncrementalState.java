@@ -0,0 +1,142 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.cardinality.AddressBitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Remembers how far a growing file was scanned and the bitmap of the scanned part,
+ * so the next run reads only the appended bytes. The state keeps the identity of the scanned file,
+ * a state of another file or of a rotated one starts from the beginning.
+ */
+public class IncrementalState {
+    private static final long MAGIC = 0x495053494E433033L; //IPSINC03
+    private static final int HEADER_SIZE = 3 * Long.BYTES + Integer.BYTES;
+    private final Path statePath;
+    private String fileIdentity;
+    private long processedOffset = 0;
+
+    private IncrementalState(Path statePath, String fileIdentity) {
+        this.statePath = statePath;
+        this.fileIdentity = fileIdentity;
+    }
+
+    /**
+     * @param inputPath The scanned file
+     * @return The absolute path with the file key, the inode on Unix, or the creation time where there is no key,
+     * a rotated file has the same path and another identity
+     * @throws IOException if the attributes can't be read
+     */
+    public static String fileIdentity(Path inputPath) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(inputPath, BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime().toMillis();
+        return inputPath.toAbsolutePath().normalize() + "|" + fileKey;
+    }
+
+    /**
+     * Loads the saved state into the bitmap, or starts from the beginning of the file if there is none
+     * or it belongs to another file.
+     *
+     * @param statePath     The state file
+     * @param fileIdentity  The identity of the scanned file, see {@link #fileIdentity(Path)}
+     * @param addressBitmap The empty bitmap to restore into
+     * @return {@link IncrementalState}
+     * @throws IOException if the state can't be read
+     */
+    public static IncrementalState open(Path statePath, String fileIdentity, AddressBitmap addressBitmap) throws IOException {
+        IncrementalState incrementalState = new IncrementalState(statePath, fileIdentity);
+        if (!Files.exists(statePath)) {
+            return incrementalState;
+        }
+        try (FileChannel channel = FileChannel.open(statePath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            read(channel, header);
+            if (header.remaining() < header.capacity() || header.getLong() != MAGIC) {
+                throw new IOException("Not an incremental state file: " + statePath);
+            }
+            long processedOffset = header.getLong();
+            long totalCount = header.getLong();
+            int identityLength = header.getInt();
+            if (identityLength < 0 || identityLength > channel.size()) {
+                throw new IOException("Not an incremental state file: " + statePath);
+            }
+            ByteBuffer identity = ByteBuffer.allocate(identityLength);
+            read(channel, identity);
+            if (identity.remaining() < identityLength) {
+                throw new IOException("The incremental state file is truncated: " + statePath);
+            }
+            if (!StandardCharsets.UTF_8.decode(identity).toString().equals(fileIdentity)) {
+                System.out.println("The incremental state belongs to another or a rotated file, starting from the beginning: " + statePath);
+                return incrementalState;
+            }
+            incrementalState.processedOffset = processedOffset;
+            addressBitmap.addTotalCount(totalCount);
+            addressBitmap.readFrom(channel);
+        }
+        System.out.println("Continuing the incremental scan from the byte: " + incrementalState.processedOffset);
+        return incrementalState;
+    }
+
+    /**
+     * @return The position after the last scanned line
+     */
+    public long getProcessedOffset() {
+        return processedOffset;
+    }
+
+    /**
+     * @param fileIdentity The identity of the scanned file now, see {@link #fileIdentity(Path)}
+     * @return true if the state belongs to the file
+     */
+    public boolean isStateOf(String fileIdentity) {
+        return this.fileIdentity.equals(fileIdentity);
+    }
+
+    /**
+     * Starts again from the beginning, used when the file was truncated or rotated.
+     *
+     * @param fileIdentity The identity of the scanned file now
+     */
+    public void reset(String fileIdentity) {
+        this.fileIdentity = fileIdentity;
+        processedOffset = 0;
+    }
+
+    /**
+     * Writes the state to a temporary file and moves it over the previous one.
+     *
+     * @param processedOffset The position after the last scanned line
+     * @param addressBitmap   The bitmap of all scanned lines
+     * @throws IOException if the state can't be written
+     */
+    public void save(long processedOffset, AddressBitmap addressBitmap) throws IOException {
+        Path temporaryPath = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] identity = fileIdentity.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + identity.length);
+            header.putLong(MAGIC).putLong(processedOffset).putLong(addressBitmap.getTotalCount()).putInt(identity.length).put(identity);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            addressBitmap.writeTo(channel);
+            channel.force(true);
+        }
+        Files.move(temporaryPath, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.processedOffset = processedOffset;
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        }
+        buffer.flip();
+    }
+}
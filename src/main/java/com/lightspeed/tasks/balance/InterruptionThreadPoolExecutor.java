@@ -4,6 +4,8 @@ import com.lightspeed.tasks.libs.Utils;
 import com.lightspeed.tasks.libs.types.MemorySizeTypes;
 import com.lightspeed.tasks.libs.types.MemoryTypes;
 import com.lightspeed.tasks.libs.types.PercentTypes;
+import com.lightspeed.tasks.metrics.ExecutorPauseEvent;
+import com.lightspeed.tasks.metrics.ScanMetrics;
 
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -17,6 +19,10 @@ public class InterruptionThreadPoolExecutor extends ThreadPoolExecutor {
     private boolean isInterrupted;
     private final ReentrantLock lock;
     private final Condition condition;
+    private final ScanMetrics scanMetrics;
+    private ExecutorPauseEvent executorPauseEvent;
+    private long pauseStartNanos;
+    private MemoryMonitoringTool memoryMonitoringTool;
 
     /**
      *
@@ -28,13 +34,14 @@ public class InterruptionThreadPoolExecutor extends ThreadPoolExecutor {
         private final CountDownLatch countDownLatch;
         private final long totalCount;
         private final AtomicBoolean isComplete = new AtomicBoolean(false);
+        private volatile boolean isStopped = false;
         private long lastDoneCount = 0;
 
         public MemoryMonitoringTool(InterruptionThreadPoolExecutor interruptionThreadPoolExecutor, PercentTypes lowerLimitOfFreeMemPercent, CountDownLatch countDownLatch) {
             this.interruptionThreadPoolExecutor = interruptionThreadPoolExecutor;
             this.lowerLimitOfFreeMemPercent = lowerLimitOfFreeMemPercent;
             this.countDownLatch = countDownLatch;
-            this.totalCount = countDownLatch.getCount();
+            this.totalCount = countDownLatch == null ? 0 : countDownLatch.getCount();
             this.lockMinFreeMemorySize = Utils.getMemory(MemoryTypes.FREE_SYSTEM_MEMORY, MemorySizeTypes.BY, this.lowerLimitOfFreeMemPercent);
             double maxFreeMemory = Utils.getMemory(MemoryTypes.FREE_SYSTEM_MEMORY, MemorySizeTypes.GB);
             System.out.printf("Lock a free Memory size (GB): [%.2f] of [%.2f]\n", maxFreeMemory - lockMinFreeMemorySize / 1024 / 1024 / 1024, maxFreeMemory);
@@ -42,12 +49,17 @@ public class InterruptionThreadPoolExecutor extends ThreadPoolExecutor {
 
         @Override
         public void run() {
+            if (countDownLatch == null) {
+                watchMemory();
+                return;
+            }
             String prefix = "\u001B[32m<Loading>\u001B[0m";
             double spendTime = 0;
             double remainingTime = 0;
             long lastTimer = System.currentTimeMillis();
 
-            while (!isComplete.get()) {
+            //Stopped when the pool terminates before all chunks are done, like a cancelled scan
+            while (!isComplete.get() && !isStopped) {
 
                 double currentFreeMem = Utils.getMemory(MemoryTypes.FREE_SYSTEM_MEMORY, MemorySizeTypes.GB);
                 long currentDoneCount = this.totalCount - countDownLatch.getCount();
@@ -99,6 +111,26 @@ public class InterruptionThreadPoolExecutor extends ThreadPoolExecutor {
             System.out.println("Done Memory Manager");
         }
 
+        /**
+         * Pauses and resumes a long-running pool by the free memory only, without the progress of a scan.
+         */
+        private void watchMemory() {
+            while (!isStopped) {
+                if (interruptionThreadPoolExecutor.isRunning() && checkIsFullMemory()) {
+                    interruptionThreadPoolExecutor.interrupt();
+                } else if (interruptionThreadPoolExecutor.isInterrupted()
+                        && interruptionThreadPoolExecutor.getActiveCount() - interruptionThreadPoolExecutor.countOfWaiting() == 0) {
+                    lockMinFreeMemorySize = Utils.getMemory(MemoryTypes.FREE_SYSTEM_MEMORY, MemorySizeTypes.BY, this.lowerLimitOfFreeMemPercent);
+                    interruptionThreadPoolExecutor.resume();
+                }
+                try {
+                    Thread.sleep(250);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
         /**
          *
          * @return true if the memory is empty
@@ -125,22 +157,45 @@ public class InterruptionThreadPoolExecutor extends ThreadPoolExecutor {
     }
 
 
-    private InterruptionThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
+    private InterruptionThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, ScanMetrics scanMetrics) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory);
         lock = new ReentrantLock();
         condition = lock.newCondition();
+        this.scanMetrics = scanMetrics;
     }
 
-    public static InterruptionThreadPoolExecutor newFixedThreadPool(int nThreads, ThreadFactory threadFactory, PercentTypes lowerLimitOfFreeMemPercent, CountDownLatch countDownLatch) {
+    public static InterruptionThreadPoolExecutor newFixedThreadPool(int nThreads, ThreadFactory threadFactory, PercentTypes lowerLimitOfFreeMemPercent, CountDownLatch countDownLatch, ScanMetrics scanMetrics) {
         InterruptionThreadPoolExecutor interruptionThreadPoolExecutor = new InterruptionThreadPoolExecutor(nThreads, nThreads,
                 10L, TimeUnit.HOURS,
                 new LinkedBlockingQueue<>(),
-                threadFactory);
-        Thread.startVirtualThread(new MemoryMonitoringTool(interruptionThreadPoolExecutor, lowerLimitOfFreeMemPercent, countDownLatch))
+                threadFactory, scanMetrics);
+        interruptionThreadPoolExecutor.memoryMonitoringTool = new MemoryMonitoringTool(interruptionThreadPoolExecutor, lowerLimitOfFreeMemPercent, countDownLatch);
+        Thread.startVirtualThread(interruptionThreadPoolExecutor.memoryMonitoringTool)
                 .setPriority(Thread.MIN_PRIORITY);
         return interruptionThreadPoolExecutor;
     }
 
+    @Override
+    protected void terminated() {
+        super.terminated();
+        if (memoryMonitoringTool != null) {
+            memoryMonitoringTool.isStopped = true;
+        }
+    }
+
+    /**
+     * Creates a pool that runs until it is shut down, a new task waits while the free memory is below the limit.
+     *
+     * @param nThreads                   The count of tasks running at once
+     * @param threadFactory              The factory of the pool threads
+     * @param lowerLimitOfFreeMemPercent The free memory to keep
+     * @param scanMetrics                The metrics to add the pauses to
+     * @return {@link InterruptionThreadPoolExecutor}
+     */
+    public static InterruptionThreadPoolExecutor newFixedThreadPool(int nThreads, ThreadFactory threadFactory, PercentTypes lowerLimitOfFreeMemPercent, ScanMetrics scanMetrics) {
+        return newFixedThreadPool(nThreads, threadFactory, lowerLimitOfFreeMemPercent, null, scanMetrics);
+    }
+
     public int countOfWaiting() {
         lock.lock();
         try {
@@ -184,6 +239,12 @@ public class InterruptionThreadPoolExecutor extends ThreadPoolExecutor {
     public void interrupt() {
         lock.lock();
         try {
+            if (!isInterrupted) {
+                pauseStartNanos = System.nanoTime();
+                executorPauseEvent = new ExecutorPauseEvent();
+                executorPauseEvent.begin();
+                executorPauseEvent.activeCount = getActiveCount();
+            }
             isInterrupted = true;
         } finally {
             lock.unlock();
@@ -196,6 +257,10 @@ public class InterruptionThreadPoolExecutor extends ThreadPoolExecutor {
     public void resume() {
         lock.lock();
         try {
+            if (isInterrupted) {
+                scanMetrics.paused(System.nanoTime() - pauseStartNanos);
+                executorPauseEvent.commit();
+            }
             isInterrupted = false;
             condition.signalAll();
         } finally {
@@ -0,0 +1,209 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.cardinality.AddressCounter;
+import com.lightspeed.tasks.cardinality.OccurrenceAccumulator;
+import com.lightspeed.tasks.libs.IPAddressParser;
+import com.lightspeed.tasks.libs.InitConfig;
+import com.lightspeed.tasks.libs.VectorLineParser;
+import com.lightspeed.tasks.metrics.ScanMetrics;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Parses the lines of a buffer and passes the valid addresses on, marked directly in the fused mode
+ * or sent to the consumers in batches through the share queue. In the fused mode the addresses are marked
+ * through a worker counter of the parser and the occurrences, if they are counted, are summed per parser,
+ * both reach the shared counters on {@link #flush()}.
+ * An instance belongs to one task and is not thread-safe.
+ */
+public class LineParser {
+    private final BlockingQueue<int[]> ipAddressesBlockingQueue;
+    private final CPUBalancer fusedBalancer;
+    private final ScanMetrics scanMetrics;
+    private final AddressCounter workerCounter;
+    private final OccurrenceAccumulator occurrenceAccumulator;
+    private VectorLineParser vectorLineParser;
+    private int[] addressBatch;
+    private int addressBatchCount = 0;
+    private long addressCount = 0;
+    private int[] stagedAddresses;
+    private int stagedCount = 0;
+    private long lineCount = 0;
+    private long invalidLineCount = 0;
+    private long queuePutCount = 0;
+    private long queuePutWaitNanos = 0;
+
+    /**
+     *
+     * @param ipAddressesBlockingQueue The share queue of the consumers, not used in the fused mode
+     * @param fusedBalancer            The balancer to mark the addresses with in the fused mode, else null
+     * @param scanMetrics              The metrics to add the counts to on {@link #flush()}
+     */
+    public LineParser(BlockingQueue<int[]> ipAddressesBlockingQueue, CPUBalancer fusedBalancer, ScanMetrics scanMetrics) {
+        this.ipAddressesBlockingQueue = ipAddressesBlockingQueue;
+        this.fusedBalancer = fusedBalancer;
+        this.scanMetrics = scanMetrics;
+        this.workerCounter = fusedBalancer != null ? fusedBalancer.newWorkerCounter() : null;
+        this.occurrenceAccumulator = fusedBalancer != null ? fusedBalancer.newOccurrenceAccumulator() : null;
+    }
+
+    /**
+     * Parses every line in the range, the last line may be unterminated.
+     *
+     * @param buffer The buffer, read with absolute indexes
+     * @param from   Index of the first byte
+     * @param to     Index after the last byte
+     * @throws InterruptedException if interrupted while waiting for the share queue
+     */
+    public void parseLines(ByteBuffer buffer, int from, int to) throws InterruptedException {
+        if (IPAddressParser.isVectorized()) {
+            if (vectorLineParser == null) {
+                vectorLineParser = new VectorLineParser(this::lineParsed);
+            }
+            vectorLineParser.parseLines(buffer, from, to);
+            return;
+        }
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = IPAddressParser.nextLineEnd(buffer, lineStart, to);
+            if (lineEnd > lineStart) {
+                lineParsed(IPAddressParser.parse(buffer, lineStart, lineEnd));
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private void lineParsed(long address) throws InterruptedException {
+        lineCount++;
+        if (address != IPAddressParser.NO_ADDRESS) {
+            addAddress((int) address);
+        } else {
+            invalidLineCount++;
+        }
+    }
+
+    /**
+     * Keeps the addresses back until {@link #commit()}, used while it is not known yet if the data is valid.
+     */
+    public void stage() {
+        if (stagedAddresses == null) {
+            stagedAddresses = new int[InitConfig.DEFAULT.addressBatchSize()];
+        }
+    }
+
+    /**
+     * @return The count of addresses kept back
+     */
+    public int getStagedCount() {
+        return stagedCount;
+    }
+
+    /**
+     * Passes the kept back addresses on and stops keeping them back.
+     *
+     * @throws InterruptedException if interrupted while waiting for the share queue
+     */
+    public void commit() throws InterruptedException {
+        int[] addresses = stagedAddresses;
+        int count = stagedCount;
+        stagedAddresses = null;
+        stagedCount = 0;
+        for (int i = 0; i < count; i++) {
+            addAddress(addresses[i]);
+        }
+    }
+
+    /**
+     * Drops the kept back addresses, the lines parsed since {@link #stage()} are not counted either.
+     */
+    public void discard() {
+        if (stagedAddresses != null) {
+            lineCount = 0;
+            invalidLineCount = 0;
+        }
+        stagedAddresses = null;
+        stagedCount = 0;
+    }
+
+    /**
+     * Sends the last incomplete batch, adds the counts to the metrics and the marked addresses and the occurrences to their counters.
+     *
+     * @throws InterruptedException if interrupted while waiting for the share queue
+     */
+    public void flush() throws InterruptedException {
+        if (addressBatchCount > 0) {
+            putBatch(Arrays.copyOf(addressBatch, addressBatchCount));
+            addressBatch = null;
+            addressBatchCount = 0;
+        }
+        if (workerCounter != null) {
+            workerCounter.flush();
+        }
+        if (occurrenceAccumulator != null) {
+            occurrenceAccumulator.flush();
+        }
+        scanMetrics.linesParsed(lineCount, invalidLineCount);
+        scanMetrics.queuePut(queuePutCount, queuePutWaitNanos);
+        lineCount = 0;
+        invalidLineCount = 0;
+        queuePutCount = 0;
+        queuePutWaitNanos = 0;
+    }
+
+    /**
+     * @return The count of the non-empty lines since the last {@link #flush()}
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return The count of the lines that are not valid addresses since the last {@link #flush()}
+     */
+    public long getInvalidLineCount() {
+        return invalidLineCount;
+    }
+
+    /**
+     * @return The count of the valid addresses passed on
+     */
+    public long getAddressCount() {
+        return addressCount;
+    }
+
+    private void addAddress(int address) throws InterruptedException {
+        if (stagedAddresses != null) {
+            if (stagedCount == stagedAddresses.length) {
+                stagedAddresses = Arrays.copyOf(stagedAddresses, stagedCount * 2);
+            }
+            stagedAddresses[stagedCount++] = address;
+            return;
+        }
+        addressCount++;
+        if (fusedBalancer != null) {
+            workerCounter.add(address);
+            if (occurrenceAccumulator != null) {
+                occurrenceAccumulator.add(address);
+            }
+            return;
+        }
+        if (addressBatch == null) {
+            addressBatch = new int[InitConfig.DEFAULT.addressBatchSize()];
+        }
+        addressBatch[addressBatchCount++] = address;
+        if (addressBatchCount == addressBatch.length) {
+            putBatch(addressBatch);
+            addressBatch = null;
+            addressBatchCount = 0;
+        }
+    }
+
+    private void putBatch(int[] batch) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        ipAddressesBlockingQueue.put(batch);
+        queuePutWaitNanos += System.nanoTime() - startNanos;
+        queuePutCount++;
+    }
+}
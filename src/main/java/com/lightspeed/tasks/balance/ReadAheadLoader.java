@@ -0,0 +1,74 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.data.ChunkRange;
+import com.lightspeed.tasks.libs.types.ReaderTypes;
+import com.lightspeed.tasks.metrics.ScanMetrics;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads one chunk on a platform I/O thread and hands the filled buffer to the chunk workers.
+ * A loader takes a read ahead permit before the read, the permit is returned when a worker starts parsing the chunk,
+ * so at most the permitted count of chunks wait filled when the workers are behind.
+ */
+public class ReadAheadLoader implements Runnable {
+    private final CountDownLatch countDownLatch;
+    private final ScanInput scanInput;
+    private final ChunkRange chunk;
+    private final BlockingQueue<int[]> ipAddressesBlockingQueue;
+    private final CPUBalancer fusedBalancer;
+    private final ChunkBufferPool chunkBufferPool;
+    private final ScanCheckpoint scanCheckpoint;
+    private final ScanMetrics scanMetrics;
+    private final ExecutorService parserExecutor;
+    private final Semaphore readAheadPermits;
+    private final AtomicReference<Throwable> scanFailure;
+
+    public ReadAheadLoader(CountDownLatch countDownLatch, ScanInput scanInput, ChunkRange chunk, BlockingQueue<int[]> ipAddressesBlockingQueue, CPUBalancer fusedBalancer, ChunkBufferPool chunkBufferPool, ScanCheckpoint scanCheckpoint, ScanMetrics scanMetrics, ExecutorService parserExecutor, Semaphore readAheadPermits, AtomicReference<Throwable> scanFailure) {
+        this.countDownLatch = countDownLatch;
+        this.scanInput = scanInput;
+        this.chunk = chunk;
+        this.ipAddressesBlockingQueue = ipAddressesBlockingQueue;
+        this.fusedBalancer = fusedBalancer;
+        this.chunkBufferPool = chunkBufferPool;
+        this.scanCheckpoint = scanCheckpoint;
+        this.scanMetrics = scanMetrics;
+        this.parserExecutor = parserExecutor;
+        this.readAheadPermits = readAheadPermits;
+        this.scanFailure = scanFailure;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer filledBuffer = null;
+        boolean isPermitted = false;
+        try {
+            readAheadPermits.acquire();
+            isPermitted = true;
+            filledBuffer = FileLoadBalancer.readChunk(scanInput, chunk, ReaderTypes.COPY, chunkBufferPool, scanMetrics);
+            FileLoadBalancer fileLoadBalancer = new FileLoadBalancer(countDownLatch, scanInput, chunk, ipAddressesBlockingQueue, fusedBalancer, chunkBufferPool, scanCheckpoint, scanMetrics, scanFailure, filledBuffer);
+            parserExecutor.submit(() -> {
+                readAheadPermits.release();
+                fileLoadBalancer.run();
+            });
+        } catch (Exception e) {
+            //the workers are stopped when the scan is cancelled
+            if (!parserExecutor.isShutdown()) {
+                scanFailure.compareAndSet(null, e);
+            }
+            if (filledBuffer != null) {
+                chunkBufferPool.release(filledBuffer);
+            }
+            if (isPermitted) {
+                readAheadPermits.release();
+            }
+            //the chunk fails the scan after the others, it must not wait for it
+            countDownLatch.countDown();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.cardinality.AddressBitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Persists the progress of a scan: the completed chunk sequence numbers, the count of their addresses and the bitmap.
+ * The completed state is captured before the bitmap words, so the saved bitmap always holds every bit of the completed chunks.
+ * Bits of the chunks still in progress may be saved as well, they are set again when those chunks are scanned after a restart.
+ */
+public class ScanCheckpoint {
+    private static final long MAGIC = 0x4950534350543032L; //IPSCPT02
+    private final Path checkpointPath;
+    private final long fileSize;
+    private final long fileLastModified;
+    private final long chunkSize;
+    private final BitSet completedChunks = new BitSet();
+    private long completedTotalCount = 0;
+
+    private ScanCheckpoint(Path checkpointPath, long fileSize, long fileLastModified, long chunkSize) {
+        this.checkpointPath = checkpointPath;
+        this.fileSize = fileSize;
+        this.fileLastModified = fileLastModified;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Loads the checkpoint of the same file into the bitmap, or starts a new one if there is none or it belongs to another input.
+     *
+     * @param checkpointPath The checkpoint file
+     * @param scannedFile    The file being scanned
+     * @param chunkSize      The nominal chunk size, the chunk plan must be the same to resume
+     * @param addressBitmap  The empty bitmap to restore into
+     * @return {@link ScanCheckpoint}
+     * @throws IOException if the files can't be read
+     */
+    public static ScanCheckpoint open(Path checkpointPath, Path scannedFile, long chunkSize, AddressBitmap addressBitmap) throws IOException {
+        ScanCheckpoint scanCheckpoint = new ScanCheckpoint(checkpointPath, Files.size(scannedFile),
+                Files.getLastModifiedTime(scannedFile).toMillis(), chunkSize);
+        if (!Files.exists(checkpointPath)) {
+            return scanCheckpoint;
+        }
+        try (FileChannel channel = FileChannel.open(checkpointPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(6 * Long.BYTES);
+            channel.read(header);
+            header.flip();
+            if (header.remaining() < header.capacity() || header.getLong() != MAGIC || header.getLong() != scanCheckpoint.fileSize
+                    || header.getLong() != scanCheckpoint.fileLastModified || header.getLong() != chunkSize) {
+                System.out.println("The checkpoint belongs to another input, starting from the beginning: " + checkpointPath);
+                return scanCheckpoint;
+            }
+            long completedTotalCount = header.getLong();
+            int completedWordCount = (int) header.getLong();
+            ByteBuffer completedWords = ByteBuffer.allocate(completedWordCount * Long.BYTES);
+            while (completedWords.hasRemaining() && channel.read(completedWords) >= 0) {
+            }
+            completedWords.flip();
+            addressBitmap.readFrom(channel);
+
+            scanCheckpoint.completedChunks.or(BitSet.valueOf(completedWords.asLongBuffer()));
+            scanCheckpoint.completedTotalCount = completedTotalCount;
+            addressBitmap.addTotalCount(completedTotalCount);
+        }
+        System.out.println("Resuming from the checkpoint, completed chunks: " + scanCheckpoint.completedChunks.cardinality());
+        return scanCheckpoint;
+    }
+
+    /**
+     * @param sequenceNumber The chunk sequence number
+     * @return true if the chunk was completed before the restart
+     */
+    public synchronized boolean isCompleted(int sequenceNumber) {
+        return completedChunks.get(sequenceNumber);
+    }
+
+    /**
+     * Called after all addresses of the chunk are marked in the bitmap.
+     *
+     * @param sequenceNumber The chunk sequence number
+     * @param totalCount     The count of the valid addresses in the chunk
+     */
+    public synchronized void chunkCompleted(int sequenceNumber, long totalCount) {
+        completedChunks.set(sequenceNumber);
+        completedTotalCount += totalCount;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and moves it over the previous one, so a crash never leaves a broken checkpoint.
+     *
+     * @param addressBitmap The bitmap being filled by the scan
+     * @throws IOException if the checkpoint can't be written
+     */
+    public void save(AddressBitmap addressBitmap) throws IOException {
+        long[] completedWords;
+        long totalCount;
+        synchronized (this) {
+            completedWords = completedChunks.toLongArray();
+            totalCount = completedTotalCount;
+        }
+        Path temporaryPath = getTemporaryPath();
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate((6 + completedWords.length) * Long.BYTES);
+            header.putLong(MAGIC).putLong(fileSize).putLong(fileLastModified).putLong(chunkSize)
+                    .putLong(totalCount).putLong(completedWords.length);
+            for (long word : completedWords) {
+                header.putLong(word);
+            }
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            addressBitmap.writeTo(channel);
+            channel.force(true);
+        }
+        Files.move(temporaryPath, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes the checkpoint after the scan has completed.
+     *
+     * @throws IOException if the file can't be deleted
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(checkpointPath);
+        Files.deleteIfExists(getTemporaryPath());
+    }
+
+    private Path getTemporaryPath() {
+        return checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+    }
+}
@@ -0,0 +1,86 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.data.FileResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One input file of a scan. The channel is opened on the first use and closed after the last chunk is completed,
+ * so a scan of thousands of files keeps open only the files in progress. A closed channel is opened again on the next use.
+ */
+public class ScanInput implements Closeable {
+    private final Path path;
+    private final AtomicInteger remainingChunks = new AtomicInteger(0);
+    private final LongAdder totalCount = new LongAdder();
+    private FileChannel channel;
+
+    public ScanInput(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return The open channel of the file
+     * @throws IOException if the file can't be opened
+     */
+    public synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    /**
+     * @param chunkCount The count of chunks submitted for this file
+     * @throws IOException if the channel can't be closed
+     */
+    public void setChunkCount(int chunkCount) throws IOException {
+        remainingChunks.set(chunkCount);
+        if (chunkCount == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Called after a chunk of this file is scanned, the channel is closed after the last one.
+     *
+     * @param addressCount The count of the valid addresses in the chunk
+     * @throws IOException if the channel can't be closed
+     */
+    public void chunkCompleted(long addressCount) throws IOException {
+        totalCount.add(addressCount);
+        if (remainingChunks.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * @param addressCount The count of the valid addresses found outside of the chunks
+     */
+    public void addAddressCount(long addressCount) {
+        totalCount.add(addressCount);
+    }
+
+    /**
+     * @return The totals of this file
+     */
+    public FileResult toFileResult() {
+        return new FileResult(path.toString(), totalCount.sum());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
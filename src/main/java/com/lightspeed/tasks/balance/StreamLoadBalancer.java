@@ -0,0 +1,113 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.libs.IPAddressParser;
+import com.lightspeed.tasks.metrics.ScanMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scans a non-seekable input like a pipe or a socket. One reader fills the pool buffers in turn and the workers parse the full ones,
+ * so the next buffer is read while the previous ones are parsed. The unfinished last line of a buffer is carried to the beginning of the next one.
+ */
+public class StreamLoadBalancer {
+    /**
+     * A longer line is never an address, only its beginning is kept to know that.
+     */
+    private static final int LONG_LINE_SIZE = 16;
+    private final ReadableByteChannel channel;
+    private final ChunkBufferPool chunkBufferPool;
+    private final BlockingQueue<int[]> ipAddressesBlockingQueue;
+    private final CPUBalancer fusedBalancer;
+    private final ScanMetrics scanMetrics;
+    private final AtomicReference<Throwable> scanFailure;
+    private final LongAdder totalCount = new LongAdder();
+
+    /**
+     *
+     * @param channel                  The input, read sequentially until the end of the stream
+     * @param chunkBufferPool          The rotating buffers, at least two to read and parse at once
+     * @param ipAddressesBlockingQueue The share queue of the consumers, not used in the fused mode
+     * @param fusedBalancer            The balancer to mark the addresses with in the fused mode, else null
+     * @param scanMetrics              The metrics of the scan
+     * @param scanFailure              Keeps the first failure of the parse tasks, the scan fails with it after the end of the stream
+     */
+    public StreamLoadBalancer(ReadableByteChannel channel, ChunkBufferPool chunkBufferPool, BlockingQueue<int[]> ipAddressesBlockingQueue, CPUBalancer fusedBalancer, ScanMetrics scanMetrics, AtomicReference<Throwable> scanFailure) {
+        if (chunkBufferPool.getCapacity() < 2) {
+            throw new IllegalArgumentException();
+        }
+        this.channel = channel;
+        this.chunkBufferPool = chunkBufferPool;
+        this.ipAddressesBlockingQueue = ipAddressesBlockingQueue;
+        this.fusedBalancer = fusedBalancer;
+        this.scanMetrics = scanMetrics;
+        this.scanFailure = scanFailure;
+    }
+
+    /**
+     * Reads the stream in the calling thread and returns after every buffer is parsed.
+     *
+     * @param executor The workers to parse the buffers with
+     * @return The count of the valid addresses
+     * @throws IOException          if the stream can't be read
+     * @throws InterruptedException if interrupted while waiting for a free buffer
+     */
+    public long scan(ExecutorService executor) throws IOException, InterruptedException {
+        //the reader is a party too, so the parse tasks can't complete the phase before the end of the stream
+        Phaser phaser = new Phaser(1);
+        ByteBuffer buffer = chunkBufferPool.acquire();
+        boolean isEndOfStream = false;
+        while (!isEndOfStream) {
+            int start = buffer.position();
+            long readStartNanos = System.nanoTime();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    isEndOfStream = true;
+                    break;
+                }
+            }
+            int end = buffer.position();
+            scanMetrics.chunkRead(end - start, System.nanoTime() - readStartNanos);
+            int parseEnd = isEndOfStream ? end : IPAddressParser.lastLineEnd(buffer, 0, end) + 1;
+            if (parseEnd == 0) {
+                //the whole buffer is one line
+                buffer.position(LONG_LINE_SIZE);
+                continue;
+            }
+            ByteBuffer next = null;
+            if (!isEndOfStream) {
+                next = chunkBufferPool.acquire();
+                next.put(0, buffer, parseEnd, end - parseEnd);
+                next.position(end - parseEnd);
+            }
+            phaser.register();
+            ByteBuffer fullBuffer = buffer;
+            executor.submit(() -> parse(fullBuffer, parseEnd, phaser));
+            buffer = next;
+        }
+        phaser.arriveAndAwaitAdvance();
+        return totalCount.sum();
+    }
+
+    private void parse(ByteBuffer buffer, int to, Phaser phaser) {
+        try {
+            LineParser lineParser = new LineParser(ipAddressesBlockingQueue, fusedBalancer, scanMetrics);
+            lineParser.parseLines(buffer, 0, to);
+            lineParser.flush();
+            totalCount.add(lineParser.getAddressCount());
+        } catch (InterruptedException e) {
+            //the scan is cancelled
+        } catch (Exception e) {
+            scanFailure.compareAndSet(null, e);
+        } finally {
+            chunkBufferPool.release(buffer);
+            phaser.arriveAndDeregister();
+        }
+    }
+}
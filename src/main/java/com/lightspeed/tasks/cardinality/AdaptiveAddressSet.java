@@ -0,0 +1,97 @@
+package com.lightspeed.tasks.cardinality;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exact counter for small and medium inputs. The addresses are grouped into containers by the high 16 bits,
+ * a container starts as a sorted array of the low 16 bits and turns into a 8 KB bitset once it fills up.
+ * The memory follows the count of distinct addresses instead of the whole 2^32 space.
+ */
+public class AdaptiveAddressSet implements AddressCounter {
+    private static final int CONTAINER_COUNT = 1 << 16;
+    /**
+     * Above this size a sorted array takes more memory than a bitset.
+     */
+    private static final int MAX_SPARSE_SIZE = 4096;
+    private final AtomicReferenceArray<Container> containers = new AtomicReferenceArray<>(CONTAINER_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+
+    /**
+     * A set of the low 16 bits of the addresses with the same high 16 bits.
+     */
+    private static class Container {
+        private char[] values = new char[4];
+        private long[] bits;
+        private int size;
+
+        synchronized void add(char value) {
+            if (bits != null) {
+                long mask = 1L << value;
+                if ((bits[value >>> 6] & mask) == 0) {
+                    bits[value >>> 6] |= mask;
+                    size++;
+                }
+                return;
+            }
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == MAX_SPARSE_SIZE) {
+                toDense();
+                add(value);
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(size * 2, MAX_SPARSE_SIZE));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+        }
+
+        private void toDense() {
+            bits = new long[1 << 10];
+            for (int i = 0; i < size; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+
+    @Override
+    public void add(int address) {
+        int key = address >>> 16;
+        Container container = containers.get(key);
+        if (container == null) {
+            containers.compareAndSet(key, null, new Container());
+            container = containers.get(key);
+        }
+        container.add((char) address);
+        totalCount.increment();
+    }
+
+    @Override
+    public long getUniqueCount() {
+        long uniqueCount = 0;
+        for (int i = 0; i < CONTAINER_COUNT; i++) {
+            Container container = containers.get(i);
+            if (container != null) {
+                uniqueCount += container.size();
+            }
+        }
+        return uniqueCount;
+    }
+
+    @Override
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+}
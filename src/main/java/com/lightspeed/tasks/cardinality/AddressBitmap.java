@@ -0,0 +1,222 @@
+package com.lightspeed.tasks.cardinality;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exact counter with one bit for every address of the 2^32 space (512 MB), all 64 bits of a word are used.
+ * A bit is set with a single atomic fetch-or, the unique count is the popcount of the words.
+ */
+public class AddressBitmap implements AddressCounter {
+    public static final int WORD_COUNT = 1 << 26;
+    /**
+     * The words are stored in containers of 1024 words (65536 addresses with the same high 16 bits).
+     */
+    public static final int CONTAINER_WORD_COUNT = 1 << 10;
+    public static final int CONTAINER_COUNT = WORD_COUNT / CONTAINER_WORD_COUNT;
+    /**
+     * The key written after the last container.
+     */
+    public static final int END_OF_CONTAINERS = -1;
+    /**
+     * The key and the cardinality written before the data of a container.
+     */
+    public static final int CONTAINER_HEADER_SIZE = 2 * Integer.BYTES;
+    /**
+     * Up to this cardinality a container is written as 2-byte values, above it the 8 KB of words are smaller.
+     */
+    private static final int MAX_ARRAY_CONTAINER_SIZE = CONTAINER_WORD_COUNT * Long.BYTES / Character.BYTES;
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    private final long[] words = new long[WORD_COUNT];
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder contendedWriteCount = new LongAdder();
+
+    @Override
+    public void add(int address) {
+        int index = address >>> 6;
+        long mask = 1L << address; //the shift distance is taken modulo 64
+        //skip the atomic write when the bit is already set, the common case for duplicates
+        if (((long) WORDS.getOpaque(words, index) & mask) == 0) {
+            //another thread has set the same bit after the check
+            if (((long) WORDS.getAndBitwiseOr(words, index, mask) & mask) != 0) {
+                contendedWriteCount.increment();
+            }
+        }
+        totalCount.increment();
+    }
+
+    @Override
+    public long getUniqueCount() {
+        long uniqueCount = 0;
+        for (int i = 0; i < WORD_COUNT; i++) {
+            uniqueCount += Long.bitCount((long) WORDS.getOpaque(words, i));
+        }
+        return uniqueCount;
+    }
+
+    @Override
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * @return The count of the atomic writes of a bit set by another thread at the same time, a sign of the contention
+     */
+    public long getContendedWriteCount() {
+        return contendedWriteCount.sum();
+    }
+
+    /**
+     * @return The words of the bitmap, not copied, for the read-only {@link AddressIndex} and {@link AddressListWriter}
+     */
+    long[] getWords() {
+        return words;
+    }
+
+    /**
+     * Removes all addresses and resets the counts, not safe while addresses are added.
+     */
+    public void clear() {
+        Arrays.fill(words, 0);
+        totalCount.reset();
+        contendedWriteCount.reset();
+    }
+
+    /**
+     * @param count The count of addresses added before, for example restored from a checkpoint
+     */
+    public void addTotalCount(long count) {
+        totalCount.add(count);
+    }
+
+    /**
+     * Writes the non-empty containers followed by an end marker. A container is written as its key, its cardinality
+     * and either the low 16 bits of its addresses in ascending order, or all its 1024 words when that is smaller.
+     * The bits set while writing may or may not be included.
+     *
+     * @param channel The channel to write to from its current position
+     * @throws IOException if the channel can't be written
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CONTAINER_HEADER_SIZE + CONTAINER_WORD_COUNT * Long.BYTES);
+        long[] containerWords = new long[CONTAINER_WORD_COUNT];
+        for (int key = 0; key < CONTAINER_COUNT; key++) {
+            int firstWord = key * CONTAINER_WORD_COUNT;
+            int cardinality = 0;
+            for (int i = 0; i < CONTAINER_WORD_COUNT; i++) {
+                containerWords[i] = (long) WORDS.getOpaque(words, firstWord + i);
+                cardinality += Long.bitCount(containerWords[i]);
+            }
+            if (cardinality == 0) {
+                continue;
+            }
+            buffer.clear();
+            buffer.putInt(key).putInt(cardinality);
+            if (cardinality <= MAX_ARRAY_CONTAINER_SIZE) {
+                for (int i = 0; i < CONTAINER_WORD_COUNT; i++) {
+                    for (long word = containerWords[i]; word != 0; word &= word - 1) {
+                        buffer.putChar((char) (i << 6 | Long.numberOfTrailingZeros(word)));
+                    }
+                }
+            } else {
+                for (long word : containerWords) {
+                    buffer.putLong(word);
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+        buffer.clear();
+        buffer.putInt(END_OF_CONTAINERS);
+        buffer.flip();
+        writeFully(channel, buffer);
+    }
+
+    /**
+     * Reads the containers written by {@link #writeTo(WritableByteChannel)} and adds their bits to this bitmap.
+     *
+     * @param channel The channel to read from its current position
+     * @throws IOException if the channel can't be read or the data is broken
+     */
+    public void readFrom(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CONTAINER_WORD_COUNT * Long.BYTES);
+        while (true) {
+            buffer.clear();
+            buffer.limit(Integer.BYTES);
+            readFully(channel, buffer);
+            int key = buffer.getInt(0);
+            if (key == END_OF_CONTAINERS) {
+                return;
+            }
+            buffer.clear();
+            buffer.limit(Integer.BYTES);
+            readFully(channel, buffer);
+            int cardinality = buffer.getInt(0);
+            if (key < 0 || key >= CONTAINER_COUNT || cardinality <= 0 || cardinality > CONTAINER_WORD_COUNT * Long.SIZE) {
+                throw new IOException("Broken bitmap container: " + key);
+            }
+            buffer.clear();
+            buffer.limit(getContainerDataSize(cardinality));
+            readFully(channel, buffer);
+            orContainer(key, cardinality, buffer, 0);
+        }
+    }
+
+    /**
+     * @param cardinality The count of addresses in the container
+     * @return The count of bytes written after the container header
+     */
+    public static int getContainerDataSize(int cardinality) {
+        return cardinality <= MAX_ARRAY_CONTAINER_SIZE ? cardinality * Character.BYTES : CONTAINER_WORD_COUNT * Long.BYTES;
+    }
+
+    /**
+     * Adds the bits of one container written by {@link #writeTo(WritableByteChannel)} to this bitmap.
+     *
+     * @param key         The container key, the high 16 bits of its addresses
+     * @param cardinality The count of addresses in the container
+     * @param buffer      The buffer holding the container data, read with absolute indexes
+     * @param offset      Index of the container data in the buffer
+     */
+    public void orContainer(int key, int cardinality, ByteBuffer buffer, int offset) {
+        int firstWord = key * CONTAINER_WORD_COUNT;
+        if (cardinality <= MAX_ARRAY_CONTAINER_SIZE) {
+            for (int i = 0; i < cardinality; i++) {
+                char low = buffer.getChar(offset + i * Character.BYTES);
+                int index = firstWord + (low >>> 6);
+                long mask = 1L << low;
+                if (((long) WORDS.getOpaque(words, index) & mask) == 0) {
+                    WORDS.getAndBitwiseOr(words, index, mask);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < CONTAINER_WORD_COUNT; i++) {
+            long word = buffer.getLong(offset + i * Long.BYTES);
+            if (word != 0) {
+                WORDS.getAndBitwiseOr(words, firstWord + i, word);
+            }
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of the bitmap data");
+            }
+        }
+    }
+}
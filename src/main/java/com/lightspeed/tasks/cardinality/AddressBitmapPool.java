@@ -0,0 +1,50 @@
+package com.lightspeed.tasks.cardinality;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Keeps the bitmaps of the completed scans, so the next scan in the same JVM clears 512 MB instead of allocating them again.
+ * Can be shared by the scanners running at the same time, a scanner takes a bitmap of its own.
+ */
+public class AddressBitmapPool {
+    private final int capacity;
+    private final Deque<AddressBitmap> addressBitmaps = new ArrayDeque<>();
+
+    /**
+     *
+     * @param capacity The count of the bitmaps kept at most, the others are left to the garbage collector
+     */
+    public AddressBitmapPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return An empty bitmap, a cleared one from the pool or a new one
+     */
+    public AddressBitmap acquire() {
+        AddressBitmap addressBitmap;
+        synchronized (addressBitmaps) {
+            addressBitmap = addressBitmaps.pollFirst();
+        }
+        if (addressBitmap == null) {
+            return new AddressBitmap();
+        }
+        addressBitmap.clear();
+        return addressBitmap;
+    }
+
+    /**
+     * @param addressBitmap The bitmap of a completed scan, it must not be used after
+     */
+    public void release(AddressBitmap addressBitmap) {
+        synchronized (addressBitmaps) {
+            if (addressBitmaps.size() < capacity) {
+                addressBitmaps.addFirst(addressBitmap);
+            }
+        }
+    }
+}
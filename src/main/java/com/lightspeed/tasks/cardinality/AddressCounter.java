@@ -0,0 +1,43 @@
+package com.lightspeed.tasks.cardinality;
+
+/**
+ * Counts the total and the unique parsed addresses, safe for concurrent use.
+ */
+public interface AddressCounter {
+    /**
+     * @param address The parsed 32-bit address
+     */
+    void add(int address);
+
+    /**
+     * @return The count of distinct addresses, called after all addresses are added
+     */
+    long getUniqueCount();
+
+    /**
+     * @return The count of all added addresses
+     */
+    long getTotalCount();
+
+    /**
+     * @return The relative standard error of the unique count, 0 for the exact counters
+     */
+    default double getStandardError() {
+        return 0;
+    }
+
+    /**
+     * A worker adds its addresses through the returned counter and calls {@link #flush()} on it after its task.
+     *
+     * @return A counter for one worker, or this counter when it is shared without a cost
+     */
+    default AddressCounter newWorkerCounter() {
+        return this;
+    }
+
+    /**
+     * Passes the addresses of a worker counter to the counter it was created by, nothing to do for a shared counter.
+     */
+    default void flush() {
+    }
+}
@@ -0,0 +1,136 @@
+package com.lightspeed.tasks.cardinality;
+
+import com.lightspeed.tasks.libs.IPAddressParser;
+
+/**
+ * Read-only queries over the bitmap of a completed scan. A rank directory holds the count of the addresses
+ * before every block of 512 addresses, so the count of the addresses below any address is a lookup and at most
+ * eight popcounts, and the distinct count of any range is the difference of two ranks.
+ * The directory takes 16.5 MB next to the 512 MB of the bitmap, the bitmap is shared and must not change after.
+ */
+public class AddressIndex {
+    private static final int BLOCK_WORD_COUNT = 8;
+    /**
+     * A super block is a container of the bitmap, the counts inside it fit into 16 bits.
+     */
+    private static final int SUPER_BLOCK_WORD_COUNT = AddressBitmap.CONTAINER_WORD_COUNT;
+    private static final int BLOCKS_PER_SUPER_BLOCK = SUPER_BLOCK_WORD_COUNT / BLOCK_WORD_COUNT;
+    private static final long ADDRESS_COUNT = 1L << 32;
+    /**
+     * The heap held by an index, the bitmap and the rank directory.
+     */
+    public static final long MEMORY_SIZE = (long) AddressBitmap.WORD_COUNT * Long.BYTES
+            + (long) AddressBitmap.WORD_COUNT / BLOCK_WORD_COUNT * Character.BYTES;
+    private final long[] words;
+    /**
+     * The count of the addresses before every super block, and the total at the end.
+     */
+    private final long[] superBlockRanks = new long[AddressBitmap.CONTAINER_COUNT + 1];
+    /**
+     * The count of the addresses before every block inside its super block.
+     */
+    private final char[] blockRanks = new char[AddressBitmap.WORD_COUNT / BLOCK_WORD_COUNT];
+
+    /**
+     *
+     * @param addressBitmap The bitmap of a completed scan
+     */
+    public AddressIndex(AddressBitmap addressBitmap) {
+        this.words = addressBitmap.getWords();
+        long rank = 0;
+        for (int superBlock = 0; superBlock < AddressBitmap.CONTAINER_COUNT; superBlock++) {
+            superBlockRanks[superBlock] = rank;
+            int superBlockRank = 0;
+            for (int block = superBlock * BLOCKS_PER_SUPER_BLOCK; block < (superBlock + 1) * BLOCKS_PER_SUPER_BLOCK; block++) {
+                blockRanks[block] = (char) superBlockRank;
+                for (int i = block * BLOCK_WORD_COUNT; i < (block + 1) * BLOCK_WORD_COUNT; i++) {
+                    superBlockRank += Long.bitCount(words[i]);
+                }
+            }
+            rank += superBlockRank;
+        }
+        superBlockRanks[AddressBitmap.CONTAINER_COUNT] = rank;
+    }
+
+    /**
+     * @param address The 32-bit address
+     * @return true if the address was seen
+     */
+    public boolean contains(int address) {
+        return (words[address >>> 6] & 1L << address) != 0;
+    }
+
+    /**
+     * @param address The address as an unsigned value from 0 to 2^32
+     * @return The count of the distinct addresses below it
+     */
+    public long rank(long address) {
+        if (address >= ADDRESS_COUNT) {
+            return superBlockRanks[AddressBitmap.CONTAINER_COUNT];
+        }
+        int wordIndex = (int) (address >>> 6);
+        long rank = superBlockRanks[wordIndex / SUPER_BLOCK_WORD_COUNT] + blockRanks[wordIndex / BLOCK_WORD_COUNT];
+        for (int i = wordIndex & -BLOCK_WORD_COUNT; i < wordIndex; i++) {
+            rank += Long.bitCount(words[i]);
+        }
+        return rank + Long.bitCount(words[wordIndex] & (1L << address) - 1);
+    }
+
+    /**
+     * @return The count of the distinct addresses
+     */
+    public long getUniqueCount() {
+        return superBlockRanks[AddressBitmap.CONTAINER_COUNT];
+    }
+
+    /**
+     * @param firstAddress The first address of the range as an unsigned value
+     * @param lastAddress  The last address of the range as an unsigned value (inclusive)
+     * @return The count of the distinct addresses in the range
+     */
+    public long count(long firstAddress, long lastAddress) {
+        return rank(lastAddress + 1) - rank(firstAddress);
+    }
+
+    /**
+     * @param cidr A range like 10.0.0.0/8, or a single address
+     * @return The count of the distinct addresses in the range
+     * @throws IllegalArgumentException if it is not a valid range
+     */
+    public long count(String cidr) {
+        int separator = cidr.indexOf('/');
+        long address = IPAddressParser.parse(separator < 0 ? cidr : cidr.substring(0, separator));
+        int prefixLength;
+        try {
+            prefixLength = separator < 0 ? Integer.SIZE : Integer.parseInt(cidr.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            prefixLength = -1;
+        }
+        if (address == IPAddressParser.NO_ADDRESS || prefixLength < 0 || prefixLength > Integer.SIZE) {
+            throw new IllegalArgumentException("Invalid CIDR range: " + cidr);
+        }
+        long size = 1L << Integer.SIZE - prefixLength;
+        long firstAddress = address & -size;
+        return count(firstAddress, firstAddress + size - 1);
+    }
+
+    /**
+     * @param prefixLength The prefix length of the ranges, from 8 to 24, ex. 16 for the /16 ranges,
+     *                     a shorter range may hold more addresses than an int count
+     * @return The count of the distinct addresses in every range, indexed by the high bits of the range
+     */
+    public int[] histogram(int prefixLength) {
+        if (prefixLength < 8 || prefixLength > 24) {
+            throw new IllegalArgumentException("The prefix length must be from 8 to 24: " + prefixLength);
+        }
+        int shift = Integer.SIZE - prefixLength;
+        int[] counts = new int[1 << prefixLength];
+        long lastRank = 0;
+        for (int i = 0; i < counts.length; i++) {
+            long rank = rank((long) (i + 1) << shift);
+            counts[i] = (int) (rank - lastRank);
+            lastRank = rank;
+        }
+        return counts;
+    }
+}
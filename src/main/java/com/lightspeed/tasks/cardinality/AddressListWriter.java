@@ -0,0 +1,174 @@
+package com.lightspeed.tasks.cardinality;
+
+import com.lightspeed.tasks.libs.types.ListFormatTypes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the distinct addresses of a completed scan as text, sorted, instead of a sort and uniq over the input.
+ * The bitmap is walked word by word and only the set bits are visited, the lines are formatted into a large array
+ * from a table of the packed octet digits and written through a direct buffer, so nothing is allocated per address.
+ */
+public class AddressListWriter {
+    private static final int BUFFER_SIZE = 4 << 20;
+    /**
+     * The longest line, 255.255.255.255/32 and the line separator, plus the bytes an octet may write past its digits.
+     */
+    private static final int MAX_LINE_SIZE = 21;
+    private static final long ADDRESS_COUNT = 1L << 32;
+    /**
+     * The digits of every octet in the low three bytes and their count in the high byte,
+     * three bytes are always copied and the position moves by the count.
+     */
+    private static final int[] OCTETS = new int[256];
+    private static final byte[][] PREFIX_LENGTHS = new byte[33][];
+
+    static {
+        for (int i = 0; i < OCTETS.length; i++) {
+            byte[] digits = String.valueOf(i).getBytes(StandardCharsets.US_ASCII);
+            int octet = digits.length << 24;
+            for (int j = 0; j < digits.length; j++) {
+                octet |= digits[j] << 8 * j;
+            }
+            OCTETS[i] = octet;
+        }
+        for (int i = 0; i < PREFIX_LENGTHS.length; i++) {
+            PREFIX_LENGTHS[i] = ("/" + i + "\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final FileChannel channel;
+    private final byte[] lines = new byte[BUFFER_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private int linesSize = 0;
+    private long lineCount = 0;
+
+    private AddressListWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Writes the list to a temporary file and moves it over the list file.
+     *
+     * @param listPath      The text file
+     * @param addressBitmap The bitmap of a completed scan, it must not change while it is written
+     * @param listFormat    {@link ListFormatTypes}
+     * @return The count of the lines written
+     * @throws IOException if the file can't be written
+     */
+    public static long write(Path listPath, AddressBitmap addressBitmap, ListFormatTypes listFormat) throws IOException {
+        Path temporaryPath = listPath.resolveSibling(listPath.getFileName() + ".tmp");
+        long lineCount;
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            AddressListWriter addressListWriter = new AddressListWriter(channel);
+            switch (listFormat) {
+                case ADDRESSES -> addressListWriter.writeAddresses(addressBitmap.getWords());
+                case CIDR -> addressListWriter.writeRanges(addressBitmap.getWords());
+            }
+            addressListWriter.flush();
+            lineCount = addressListWriter.lineCount;
+        }
+        Files.move(temporaryPath, listPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return lineCount;
+    }
+
+    private void writeAddresses(long[] words) throws IOException {
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            long base = (long) i << 6;
+            while (word != 0) {
+                putAddress(base + Long.numberOfTrailingZeros(word));
+                lines[linesSize++] = '\n';
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * Finds the runs of consecutive addresses, skipping the empty words outside a run and the full words inside it.
+     */
+    private void writeRanges(long[] words) throws IOException {
+        long runStart = -1;
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            if (word == (runStart < 0 ? 0 : -1L)) {
+                continue;
+            }
+            long base = (long) i << 6;
+            int bit = 0;
+            while (bit < Long.SIZE) {
+                //the next set bit outside a run, the next clear bit inside it
+                long remaining = (runStart < 0 ? word : ~word) & -1L << bit;
+                if (remaining == 0) {
+                    break;
+                }
+                bit = Long.numberOfTrailingZeros(remaining);
+                if (runStart < 0) {
+                    runStart = base + bit;
+                } else {
+                    putRange(runStart, base + bit);
+                    runStart = -1;
+                }
+            }
+        }
+        if (runStart >= 0) {
+            putRange(runStart, ADDRESS_COUNT);
+        }
+    }
+
+    /**
+     * Covers the run with the largest aligned blocks, at most 62 blocks for a run.
+     *
+     * @param start The first address of the run
+     * @param end   The address after the run
+     */
+    private void putRange(long start, long end) throws IOException {
+        while (start < end) {
+            //the block size is limited by the alignment of the start and by the rest of the run
+            int sizeBits = Math.min(start == 0 ? 32 : Long.numberOfTrailingZeros(start), 63 - Long.numberOfLeadingZeros(end - start));
+            putAddress(start);
+            byte[] prefixLength = PREFIX_LENGTHS[32 - sizeBits];
+            System.arraycopy(prefixLength, 0, lines, linesSize, prefixLength.length);
+            linesSize += prefixLength.length;
+            start += 1L << sizeBits;
+        }
+    }
+
+    private void putAddress(long address) throws IOException {
+        if (linesSize > BUFFER_SIZE - MAX_LINE_SIZE) {
+            flush();
+        }
+        putOctet((int) (address >>> 24) & 0xFF);
+        lines[linesSize++] = '.';
+        putOctet((int) (address >>> 16) & 0xFF);
+        lines[linesSize++] = '.';
+        putOctet((int) (address >>> 8) & 0xFF);
+        lines[linesSize++] = '.';
+        putOctet((int) address & 0xFF);
+        lineCount++;
+    }
+
+    private void putOctet(int value) {
+        int octet = OCTETS[value];
+        //the bytes after the digits are overwritten by the next byte of the line
+        lines[linesSize] = (byte) octet;
+        lines[linesSize + 1] = (byte) (octet >>> 8);
+        lines[linesSize + 2] = (byte) (octet >>> 16);
+        linesSize += octet >>> 24;
+    }
+
+    private void flush() throws IOException {
+        buffer.clear().put(lines, 0, linesSize).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        linesSize = 0;
+    }
+}
@@ -0,0 +1,195 @@
+package com.lightspeed.tasks.cardinality;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Approximate counter based on a HyperLogLog sketch with 2^precision registers.
+ * Every worker updates registers of its own, see {@link #newWorkerCounter()}, they are merged by the maximum
+ * into the shared registers when the worker flushes. The shared registers are raised with a compare and set,
+ * so a worker takes no per-thread state and a scan with many short-lived tasks keeps one sketch per task at most.
+ */
+public class HyperLogLogCounter implements AddressCounter {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    private final int precision;
+    private final int registerCount;
+    private static final VarHandle REGISTERS = MethodHandles.arrayElementVarHandle(byte[].class);
+    private final byte[] registers;
+    private final LongAdder totalCount = new LongAdder();
+
+    /**
+     *
+     * @param precision The count of index bits, the standard error is 1.04 / sqrt(2^precision)
+     */
+    public HyperLogLogCounter(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("The precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+        }
+        this.precision = precision;
+        this.registerCount = 1 << precision;
+        this.registers = new byte[registerCount];
+    }
+
+    @Override
+    public void add(int address) {
+        long hash = hash(address);
+        raiseRegister(index(hash), rank(hash));
+        totalCount.increment();
+    }
+
+    /**
+     * @return Registers of the worker, merged into this sketch on {@link AddressCounter#flush()}
+     */
+    @Override
+    public AddressCounter newWorkerCounter() {
+        return new WorkerCounter();
+    }
+
+    private int index(long hash) {
+        return (int) (hash >>> (64 - precision));
+    }
+
+    private byte rank(long hash) {
+        //the guard bit limits the rank when all remaining bits are zero
+        return (byte) (Long.numberOfLeadingZeros(hash << precision | 1L << (precision - 1)) + 1);
+    }
+
+    private void raiseRegister(int index, byte rank) {
+        //the registers only grow, most addresses read a register without writing it
+        byte current = (byte) REGISTERS.getVolatile(registers, index);
+        while (current < rank && !REGISTERS.weakCompareAndSet(registers, index, current, rank)) {
+            current = (byte) REGISTERS.getVolatile(registers, index);
+        }
+    }
+
+    private void mergeRegisters(byte[] source) {
+        for (int i = 0; i < registerCount; i++) {
+            if (source[i] > 0) {
+                raiseRegister(i, source[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the registers of another sketch with the same precision, for example from another partition.
+     *
+     * @param other The sketch to merge into this one
+     */
+    public void merge(HyperLogLogCounter other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("The precision of the sketches is different");
+        }
+        mergeRegisters(other.getMergedRegisters());
+        totalCount.add(other.getTotalCount());
+    }
+
+    /**
+     * @return A copy of the registers of all flushed workers merged by the maximum
+     */
+    public byte[] getMergedRegisters() {
+        byte[] merged = new byte[registerCount];
+        for (int i = 0; i < registerCount; i++) {
+            merged[i] = (byte) REGISTERS.getVolatile(registers, i);
+        }
+        return merged;
+    }
+
+    @Override
+    public long getUniqueCount() {
+        byte[] registers = getMergedRegisters();
+        double sum = 0;
+        int zeroCount = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeroCount++;
+            }
+        }
+        double estimate = alpha() * registerCount * registerCount / sum;
+        if (estimate <= 2.5 * registerCount && zeroCount > 0) {
+            //small range correction with the linear counting
+            estimate = registerCount * Math.log(registerCount / (double) zeroCount);
+        }
+        return Math.round(estimate);
+    }
+
+    @Override
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    @Override
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(registerCount);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    private double alpha() {
+        return switch (registerCount) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / registerCount);
+        };
+    }
+
+    /**
+     * The registers of one worker, not thread-safe. The counts are the counts of the whole sketch.
+     */
+    private class WorkerCounter implements AddressCounter {
+        private final byte[] workerRegisters = new byte[registerCount];
+        private long workerTotalCount = 0;
+
+        @Override
+        public void add(int address) {
+            long hash = hash(address);
+            int index = index(hash);
+            byte rank = rank(hash);
+            if (workerRegisters[index] < rank) {
+                workerRegisters[index] = rank;
+            }
+            workerTotalCount++;
+        }
+
+        @Override
+        public void flush() {
+            //the maximum is idempotent, the registers are kept for the next addresses of the worker
+            mergeRegisters(workerRegisters);
+            totalCount.add(workerTotalCount);
+            workerTotalCount = 0;
+        }
+
+        @Override
+        public long getUniqueCount() {
+            return HyperLogLogCounter.this.getUniqueCount();
+        }
+
+        @Override
+        public long getTotalCount() {
+            return HyperLogLogCounter.this.getTotalCount();
+        }
+
+        @Override
+        public double getStandardError() {
+            return HyperLogLogCounter.this.getStandardError();
+        }
+    }
+
+    /**
+     * @return 64-bit mix of the address (the MurmurHash3 finalizer)
+     */
+    private static long hash(int address) {
+        long hash = address & 0xffffffffL;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,78 @@
+package com.lightspeed.tasks.cardinality;
+
+import java.util.Arrays;
+
+/**
+ * Sums the occurrences of the addresses of one worker in a small open addressing table and adds the sums
+ * to the shared {@link OccurrenceCounter} when the table fills up or on {@link #flush()},
+ * so a frequent address costs one shared update per batch instead of one per line.
+ * The table is indexed by the high bits of {@link #hash(int)}, so the batch comes out in the order of the hash.
+ * An instance belongs to one worker and is not thread-safe.
+ */
+public class OccurrenceAccumulator {
+    private static final int CAPACITY_BITS = 14;
+    private static final int CAPACITY = 1 << CAPACITY_BITS;
+    private static final int MAX_SIZE = CAPACITY * 3 / 4;
+    private final OccurrenceCounter occurrenceCounter;
+    private final int[] addresses = new int[CAPACITY];
+    /**
+     * 0 marks a free slot.
+     */
+    private final long[] counts = new long[CAPACITY];
+    private int size = 0;
+
+    /**
+     *
+     * @param occurrenceCounter The shared counter the sums are added to
+     */
+    public OccurrenceAccumulator(OccurrenceCounter occurrenceCounter) {
+        this.occurrenceCounter = occurrenceCounter;
+    }
+
+    /**
+     * @param address The 32-bit address
+     * @return The hash the batches are ordered by, the counters stripe their locks by its high bits
+     */
+    public static int hash(int address) {
+        return address * 0x9E3779B9;
+    }
+
+    /**
+     * @param address The parsed 32-bit address
+     */
+    public void add(int address) {
+        int index = hash(address) >>> Integer.SIZE - CAPACITY_BITS;
+        while (counts[index] != 0) {
+            if (addresses[index] == address) {
+                counts[index]++;
+                return;
+            }
+            index = index + 1 & CAPACITY - 1;
+        }
+        addresses[index] = address;
+        counts[index] = 1;
+        if (++size == MAX_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds the sums to the shared counter and empties the table.
+     */
+    public void flush() {
+        if (size == 0) {
+            return;
+        }
+        //the entries are moved to the front in the table order, the table is emptied after
+        int batchSize = 0;
+        for (int i = 0; i < CAPACITY; i++) {
+            if (counts[i] != 0) {
+                addresses[batchSize] = addresses[i];
+                counts[batchSize++] = counts[i];
+            }
+        }
+        occurrenceCounter.addAll(addresses, counts, batchSize);
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+}
@@ -0,0 +1,33 @@
+package com.lightspeed.tasks.cardinality;
+
+import com.lightspeed.tasks.data.AddressOccurrence;
+
+import java.util.List;
+
+/**
+ * Counts how often every address occurs, safe for concurrent use.
+ * The workers add their sums through an {@link OccurrenceAccumulator} of their own.
+ */
+public interface OccurrenceCounter extends AutoCloseable {
+    /**
+     * Adds the sums of a batch, the addresses come in the order of {@link OccurrenceAccumulator#hash(int)},
+     * so a counter striping its locks by the high bits of the hash takes every lock once per batch.
+     *
+     * @param addresses The distinct addresses of the batch
+     * @param counts    The count of the new occurrences of every address
+     * @param size      The count of the addresses
+     */
+    void addAll(int[] addresses, long[] counts, int size);
+
+    /**
+     * @param count The count of the addresses to return
+     * @return The most frequent addresses in the descending order of their counts, called after all addresses are added
+     */
+    List<AddressOccurrence> getTopAddresses(int count);
+
+    /**
+     * Frees the memory of the counters.
+     */
+    @Override
+    void close();
+}
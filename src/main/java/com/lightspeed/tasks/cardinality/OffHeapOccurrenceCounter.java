@@ -0,0 +1,91 @@
+package com.lightspeed.tasks.cardinality;
+
+import com.lightspeed.tasks.data.AddressOccurrence;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exact occurrence counts in a saturating byte counter for every address of the 2^32 space, 4 GB allocated off the heap.
+ * A counter stops at 255 and the count of its address goes on in an overflow map, which holds the frequent addresses only.
+ * The updates are guarded by striped locks by the high bits of {@link OccurrenceAccumulator#hash(int)}.
+ */
+public class OffHeapOccurrenceCounter implements OccurrenceCounter {
+    public static final long MEMORY_SIZE = 1L << Integer.SIZE;
+    private static final int SATURATED = 255;
+    private static final int STRIPE_BITS = 10;
+    private static final ValueLayout.OfLong COUNTER_WORD = ValueLayout.JAVA_LONG.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment counters = arena.allocate(MEMORY_SIZE, Long.BYTES);
+    private final Object[] stripes = new Object[1 << STRIPE_BITS];
+    private final Map<Integer, Long> overflowCounts = new ConcurrentHashMap<>();
+
+    public OffHeapOccurrenceCounter() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    @Override
+    public void addAll(int[] addresses, long[] counts, int size) {
+        int start = 0;
+        while (start < size) {
+            //the run of the addresses of one stripe
+            int stripe = OccurrenceAccumulator.hash(addresses[start]) >>> Integer.SIZE - STRIPE_BITS;
+            int end = start + 1;
+            while (end < size && OccurrenceAccumulator.hash(addresses[end]) >>> Integer.SIZE - STRIPE_BITS == stripe) {
+                end++;
+            }
+            synchronized (stripes[stripe]) {
+                for (int i = start; i < end; i++) {
+                    add(addresses[i], counts[i]);
+                }
+            }
+            start = end;
+        }
+    }
+
+    private void add(int address, long count) {
+        long offset = Integer.toUnsignedLong(address);
+        int counter = Byte.toUnsignedInt(counters.get(ValueLayout.JAVA_BYTE, offset));
+        if (counter == SATURATED) {
+            overflowCounts.merge(address, count, Long::sum);
+        } else if (counter + count >= SATURATED) {
+            counters.set(ValueLayout.JAVA_BYTE, offset, (byte) SATURATED);
+            overflowCounts.put(address, counter + count);
+        } else {
+            counters.set(ValueLayout.JAVA_BYTE, offset, (byte) (counter + count));
+        }
+    }
+
+    @Override
+    public List<AddressOccurrence> getTopAddresses(int count) {
+        TopAddressTracker topAddressTracker = new TopAddressTracker(count);
+        overflowCounts.forEach(topAddressTracker::offer);
+        if (!topAddressTracker.isFull()) {
+            //Fewer frequent addresses than asked, the rest are found among the counters below the saturation
+            for (long offset = 0; offset < MEMORY_SIZE; offset += Long.BYTES) {
+                long word = counters.get(COUNTER_WORD, offset);
+                while (word != 0) {
+                    int shift = Long.numberOfTrailingZeros(word) & -Byte.SIZE;
+                    int counter = (int) (word >>> shift) & 0xFF;
+                    if (counter != SATURATED) {
+                        topAddressTracker.offer((int) (offset + shift / Byte.SIZE), counter);
+                    }
+                    word &= ~(0xFFL << shift);
+                }
+            }
+        }
+        return topAddressTracker.toList(count);
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
@@ -0,0 +1,116 @@
+package com.lightspeed.tasks.cardinality;
+
+import com.lightspeed.tasks.data.AddressOccurrence;
+
+import java.util.List;
+
+/**
+ * Approximate occurrence counts in a count-min sketch: every row of counters is indexed by its own hash of the address,
+ * the estimate is the smallest counter of the rows. It is never below the exact count and exceeds it by at most
+ * e / width of the total count with the probability of 1 - e^-depth.
+ * The sketch is split into stripes by the high bits of {@link OccurrenceAccumulator#hash(int)}, every stripe is
+ * a smaller sketch of its share of the addresses under a lock of its own, so its saturating counters are updated
+ * without atomic instructions and the error bound stays the same.
+ * The addresses with the largest estimates are kept in a heap in the same pass, an address gets into it
+ * when its estimate passes the smallest one in the heap.
+ */
+public class SketchOccurrenceCounter implements OccurrenceCounter {
+    public static final int DEPTH = 4;
+    public static final int MIN_WIDTH_BITS = 16;
+    /**
+     * 16 MB of counters, a wider sketch is slowed down by the cache misses more than it gains in accuracy.
+     */
+    public static final int MAX_WIDTH_BITS = 20;
+    private static final int STRIPE_BITS = 6;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+    private final int stripeWidthBits;
+    private final int[] counters;
+    private final Object[] stripes = new Object[1 << STRIPE_BITS];
+    private final TopAddressTracker topAddressTracker;
+    /**
+     * The smallest estimate in the full heap, a smaller estimate is not offered to it.
+     */
+    private volatile long minTopCount = 0;
+
+    /**
+     *
+     * @param widthBits       The width of a row as a power of two, from {@link #MIN_WIDTH_BITS} to {@link #MAX_WIDTH_BITS}
+     * @param topAddressCount The count of the most frequent addresses to keep
+     */
+    public SketchOccurrenceCounter(int widthBits, int topAddressCount) {
+        if (widthBits < MIN_WIDTH_BITS || widthBits > MAX_WIDTH_BITS) {
+            throw new IllegalArgumentException();
+        }
+        this.stripeWidthBits = widthBits - STRIPE_BITS;
+        this.counters = new int[DEPTH << widthBits];
+        this.topAddressTracker = new TopAddressTracker(topAddressCount);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * @param widthBits The width of a row as a power of two
+     * @return The size of the counters in bytes
+     */
+    public static long getMemorySize(int widthBits) {
+        return (long) DEPTH * Integer.BYTES << widthBits;
+    }
+
+    @Override
+    public void addAll(int[] addresses, long[] counts, int size) {
+        int start = 0;
+        while (start < size) {
+            //the run of the addresses of one stripe
+            int stripe = OccurrenceAccumulator.hash(addresses[start]) >>> Integer.SIZE - STRIPE_BITS;
+            int end = start + 1;
+            while (end < size && OccurrenceAccumulator.hash(addresses[end]) >>> Integer.SIZE - STRIPE_BITS == stripe) {
+                end++;
+            }
+            synchronized (stripes[stripe]) {
+                int stripeOffset = stripe * DEPTH << stripeWidthBits;
+                for (int i = start; i < end; i++) {
+                    add(stripeOffset, addresses[i], counts[i]);
+                }
+            }
+            start = end;
+        }
+    }
+
+    private void add(int stripeOffset, int address, long count) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = stripeOffset + (row << stripeWidthBits | index(address, row));
+            long counter = Math.min(counters[index] + count, Integer.MAX_VALUE);
+            counters[index] = (int) counter;
+            estimate = Math.min(estimate, counter);
+        }
+        if (estimate > minTopCount) {
+            synchronized (topAddressTracker) {
+                topAddressTracker.offer(address, estimate);
+                if (topAddressTracker.isFull()) {
+                    minTopCount = topAddressTracker.getMinCount();
+                }
+            }
+        }
+    }
+
+    private int index(int address, int row) {
+        long hash = (address & 0xFFFFFFFFL) * SEEDS[row];
+        hash ^= hash >>> 31;
+        hash *= 0x94D049BB133111EBL;
+        return (int) (hash >>> Long.SIZE - stripeWidthBits);
+    }
+
+    @Override
+    public List<AddressOccurrence> getTopAddresses(int count) {
+        synchronized (topAddressTracker) {
+            return topAddressTracker.toList(count);
+        }
+    }
+
+    @Override
+    public void close() {
+        //the counters are on the heap
+    }
+}
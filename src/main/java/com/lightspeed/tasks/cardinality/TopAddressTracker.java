@@ -0,0 +1,138 @@
+package com.lightspeed.tasks.cardinality;
+
+import com.lightspeed.tasks.data.AddressOccurrence;
+import com.lightspeed.tasks.libs.Utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The addresses with the largest counts offered so far, in a binary min-heap with the smallest count at the root,
+ * which is replaced when a larger count comes. The counts of an address may only grow. Not thread-safe.
+ */
+class TopAddressTracker {
+    private final int[] addresses;
+    private final long[] counts;
+    /**
+     * The heap index of every address in the heap.
+     */
+    private final Map<Integer, Integer> positions = new HashMap<>();
+    private int size = 0;
+
+    /**
+     *
+     * @param capacity The count of the addresses to keep
+     */
+    TopAddressTracker(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.addresses = new int[capacity];
+        this.counts = new long[capacity];
+    }
+
+    /**
+     * @param address The 32-bit address
+     * @param count   The count of the address so far
+     */
+    void offer(int address, long count) {
+        //a full heap keeps the addresses above its smallest count only
+        if (isFull() && count <= counts[0]) {
+            return;
+        }
+        Integer position = positions.get(address);
+        if (position != null) {
+            if (count > counts[position]) {
+                counts[position] = count;
+                siftDown(position);
+            }
+        } else if (!isFull()) {
+            place(size, address, count);
+            siftUp(size++);
+        } else {
+            positions.remove(addresses[0]);
+            place(0, address, count);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return true if the heap holds its capacity
+     */
+    boolean isFull() {
+        return size == addresses.length;
+    }
+
+    /**
+     * @return The smallest count in the heap, 0 if it is empty
+     */
+    long getMinCount() {
+        return size == 0 ? 0 : counts[0];
+    }
+
+    /**
+     * @return The count of the addresses in the heap
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @param count The count of the addresses to return
+     * @return The addresses in the descending order of their counts, the lower addresses first on a tie
+     */
+    List<AddressOccurrence> toList(int count) {
+        List<Integer> indexes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            indexes.add(i);
+        }
+        indexes.sort(Comparator.<Integer>comparingLong(i -> -counts[i]).thenComparingLong(i -> Integer.toUnsignedLong(addresses[i])));
+        return indexes.stream()
+                .limit(count)
+                .map(i -> new AddressOccurrence(Utils.longToIp(Integer.toUnsignedLong(addresses[i])), counts[i]))
+                .toList();
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (counts[parent] <= counts[index]) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index;
+            for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                if (counts[child] < counts[smallest]) {
+                    smallest = child;
+                }
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int first, int second) {
+        int address = addresses[first];
+        long count = counts[first];
+        place(first, addresses[second], counts[second]);
+        place(second, address, count);
+    }
+
+    private void place(int index, int address, long count) {
+        addresses[index] = address;
+        counts[index] = count;
+        positions.put(address, index);
+    }
+}
@@ -0,0 +1,9 @@
+package com.lightspeed.tasks.data;
+
+/**
+ *
+ * @param ipAddress The address
+ * @param count     The count of its lines, an upper estimate for the sketch counter
+ */
+public record AddressOccurrence(String ipAddress, long count) {
+}
@@ -1,4 +1,26 @@
 package com.lightspeed.tasks.data;
 
-public record AddressesResults(long countOfUniqueIPAddresses, long totalCountOfIPAddresses) {
+import java.util.List;
+
+/**
+ *
+ * @param countOfUniqueIPAddresses The count of distinct addresses, an estimate for the approximate counter
+ * @param totalCountOfIPAddresses  The count of all valid addresses
+ * @param standardError            The relative standard error of the unique count, 0 when it is exact
+ * @param fileResults              The totals of every scanned file
+ * @param topAddresses             The most frequent addresses in the descending order of their counts, empty if they are not counted
+ */
+public record AddressesResults(long countOfUniqueIPAddresses, long totalCountOfIPAddresses, double standardError, List<FileResult> fileResults,
+                               List<AddressOccurrence> topAddresses) {
+    public AddressesResults(long countOfUniqueIPAddresses, long totalCountOfIPAddresses, double standardError, List<FileResult> fileResults) {
+        this(countOfUniqueIPAddresses, totalCountOfIPAddresses, standardError, fileResults, List.of());
+    }
+
+    public AddressesResults(long countOfUniqueIPAddresses, long totalCountOfIPAddresses) {
+        this(countOfUniqueIPAddresses, totalCountOfIPAddresses, 0);
+    }
+
+    public AddressesResults(long countOfUniqueIPAddresses, long totalCountOfIPAddresses, double standardError) {
+        this(countOfUniqueIPAddresses, totalCountOfIPAddresses, standardError, List.of());
+    }
 }
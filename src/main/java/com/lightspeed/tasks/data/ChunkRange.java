@@ -0,0 +1,10 @@
+package com.lightspeed.tasks.data;
+
+/**
+ *
+ * @param sequenceNumber The chunk index in the file
+ * @param startPointer   The file position of the first byte
+ * @param size           The count of bytes, the chunk always ends after a line separator or at the end of the file
+ */
+public record ChunkRange(int sequenceNumber, long startPointer, int size) {
+}
@@ -0,0 +1,9 @@
+package com.lightspeed.tasks.data;
+
+/**
+ *
+ * @param fileName                The scanned file
+ * @param totalCountOfIPAddresses The count of the valid addresses in the file
+ */
+public record FileResult(String fileName, long totalCountOfIPAddresses) {
+}
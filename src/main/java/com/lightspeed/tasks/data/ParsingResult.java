@@ -1,3 +0,0 @@
-package com.lightspeed.tasks.data;
-
-public record ParsingResult(String start, String end) {}
\ No newline at end of file
@@ -0,0 +1,11 @@
+package com.lightspeed.tasks.data;
+
+/**
+ *
+ * @param completedChunks The count of the parsed chunks and gzip members
+ * @param totalChunks     The count of all chunks of the scan, -1 for a stream
+ * @param bytesRead       The count of bytes read so far
+ * @param totalBytes      The count of bytes to read, -1 for a stream
+ */
+public record ScanProgress(long completedChunks, long totalChunks, long bytesRead, long totalBytes) {
+}
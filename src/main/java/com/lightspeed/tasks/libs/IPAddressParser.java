@@ -0,0 +1,117 @@
+package com.lightspeed.tasks.libs;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free IPv4 parser working directly on the bytes of a chunk.
+ * The address is validated and packed into 32 bits in a single pass.
+ */
+public class IPAddressParser {
+    /**
+     * Returned when the line does not hold a valid IPv4 address.
+     */
+    public static final long NO_ADDRESS = -1L;
+    private static final boolean IS_VECTORIZED = isVectorSupported();
+
+    /**
+     * @return true if the lines are parsed by {@link VectorLineParser}, that is when the JVM runs with
+     * {@code --add-modules jdk.incubator.vector} on a CPU with at least 256-bit vectors
+     */
+    public static boolean isVectorized() {
+        return IS_VECTORIZED;
+    }
+
+    private static boolean isVectorSupported() {
+        //the vector classes can't be loaded without the module, so it is checked first
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        return VectorLineParser.preferredVectorBitSize() >= 256;
+    }
+
+    /**
+     * @param buffer The chunk buffer, read with absolute indexes (position and limit are not changed)
+     * @param from   Index of the first byte of the line (inclusive)
+     * @param to     Index after the last byte of the line (exclusive), without the line separator
+     * @return The address as an unsigned 32-bit value ex. 192.168.0.1 to 3232235521, or {@link #NO_ADDRESS}
+     */
+    public static long parse(ByteBuffer buffer, int from, int to) {
+        return parse(buffer, null, from, to);
+    }
+
+    /**
+     * @param ipAddress IP address text
+     * @return The address as an unsigned 32-bit value, or {@link #NO_ADDRESS}
+     */
+    public static long parse(CharSequence ipAddress) {
+        if (ipAddress == null) return NO_ADDRESS;
+        return parse(null, ipAddress, 0, ipAddress.length());
+    }
+
+    /**
+     * Reads the characters from the buffer, or from the text when there is no buffer. The source is fixed for the whole
+     * loop, so the check is folded away where the public methods are inlined into the chunk loops.
+     */
+    private static long parse(ByteBuffer buffer, CharSequence text, int from, int to) {
+        long result = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = from; i < to; i++) {
+            int c = buffer != null ? buffer.get(i) : text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (octet > 255) {
+                    return NO_ADDRESS;
+                }
+                digits++;
+            } else if (c == '.') {
+                if (digits == 0 || dots == 3) {
+                    return NO_ADDRESS;
+                }
+                result = result << 8 | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return NO_ADDRESS;
+            }
+        }
+        if (dots != 3 || digits == 0) {
+            return NO_ADDRESS;
+        }
+        return result << 8 | octet;
+    }
+
+    /**
+     * @param buffer The chunk buffer
+     * @param from   Index to start the search from
+     * @param to     Index to stop the search at (exclusive)
+     * @return Index of the next '\n' or '\r', or {@code to} if the line is not terminated in the range
+     */
+    public static int nextLineEnd(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte c = buffer.get(i);
+            if (c == '\n' || c == '\r') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @param buffer The chunk buffer
+     * @param from   Index to stop the search at (inclusive)
+     * @param to     Index to start the search from (exclusive)
+     * @return Index of the last '\n' or '\r' in the range, or -1 if there is none
+     */
+    public static int lastLineEnd(ByteBuffer buffer, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            byte c = buffer.get(i);
+            if (c == '\n' || c == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
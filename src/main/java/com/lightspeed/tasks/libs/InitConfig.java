@@ -4,7 +4,14 @@ package com.lightspeed.tasks.libs;
  *
  * @param steamShareBlockSize
  * @param fileReadChunkSize
+ * @param addressBatchSize The count of parsed addresses sent together through the share queue
+ * @param maxLineLength The longest line a chunk boundary is moved over to reach the next line
+ * @param adaptiveCounterMaxFileSize The largest input that is counted with the sparse containers when the counter type is AUTO
+ * @param concurrencyControlIntervalMillis The period of the throughput measurement that tunes the worker count
+ * @param maxWorkersPerCore The upper limit of the chunk workers for every core, they mostly wait for the reads
+ * @param gzipInflationRatio The assumed size of a gzip input inflated for every compressed byte, a compressed log is usually about ten times larger
  */
-public record InitConfig(int steamShareBlockSize, long fileReadChunkSize) {
-    public static final InitConfig DEFAULT = new InitConfig(10_000, 5*1024*1024);
+public record InitConfig(int steamShareBlockSize, long fileReadChunkSize, int addressBatchSize, int maxLineLength, long adaptiveCounterMaxFileSize,
+                         long concurrencyControlIntervalMillis, int maxWorkersPerCore, int gzipInflationRatio) {
+    public static final InitConfig DEFAULT = new InitConfig(10_000, 5*1024*1024, 1024, 4 * 1024, 512L*1024*1024, 500, 4, 10);
 }
@@ -5,15 +5,24 @@ import com.lightspeed.tasks.libs.types.MemoryTypes;
 import com.lightspeed.tasks.libs.types.PercentTypes;
 import com.sun.management.OperatingSystemMXBean;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Stack;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class Utils {
+    /**
+     * The input name of the standard input, ex. zcat access.log.gz | scanner -
+     */
+    public static final String STANDARD_INPUT = "-";
+
     /**
      * @param remain Remain number
      * @param total  Total number
@@ -66,40 +75,65 @@ public class Utils {
     }
 
     /**
-     * @param ipAddress IP address
-     * @return true if a valid address else false
+     * @param input A file, a directory, a glob like /logs/*.log or a list of them separated by {@link File#pathSeparator}
+     * @return The regular files of the input in name order, directories are walked recursively
      */
-    public static boolean isValidIPAddress(String ipAddress) {
-        if (ipAddress == null) return false;
-        String[] ipList = ipAddress.split("\\.");
-        if (ipList.length != 4) {
-            return false;
-        }
-        for (String ip : ipList) {
+    public static List<Path> resolveInputFiles(String input) {
+        List<Path> files = new ArrayList<>();
+        for (String part : input.split(Pattern.quote(File.pathSeparator))) {
+            if (part.isBlank()) {
+                continue;
+            }
+            int globIndex = indexOfGlob(part);
             try {
-                if (Integer.parseInt(ip) < 0 || Integer.parseInt(ip) > 255) {
-                    return false;
+                if (globIndex >= 0) {
+                    //Walk from the last directory before the first glob character
+                    int separatorIndex = part.lastIndexOf(File.separatorChar, globIndex);
+                    Path baseDirectory = Paths.get(separatorIndex < 0 ? "." : part.substring(0, separatorIndex + 1));
+                    PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + (separatorIndex < 0 ? part : part.substring(separatorIndex + 1)));
+                    try (Stream<Path> paths = Files.walk(baseDirectory)) {
+                        paths.filter(Files::isRegularFile)
+                                .filter(path -> pathMatcher.matches(baseDirectory.relativize(path)))
+                                .sorted()
+                                .forEach(files::add);
+                    }
+                } else if (Files.isDirectory(Paths.get(part))) {
+                    try (Stream<Path> paths = Files.walk(Paths.get(part))) {
+                        paths.filter(Files::isRegularFile).sorted().forEach(files::add);
+                    }
+                } else if (Files.isRegularFile(Paths.get(part))) {
+                    files.add(Paths.get(part));
                 }
-            } catch (NumberFormatException e) {
-                return false;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return files;
+    }
+
+    private static int indexOfGlob(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            if ("*?[{".indexOf(path.charAt(i)) >= 0) {
+                return i;
             }
         }
-        return true;
+        return -1;
     }
 
     /**
      * @param ipAddress IP address
-     * @return text IP address to long value ex. 192.168.0.0 to 3232235521
+     * @return true if a valid address else false
      */
-    public static long ipToLong(String ipAddress) {
-        if (ipAddress == null) return -1;
-        String[] ipAddressInArray = ipAddress.split("\\.");
+    public static boolean isValidIPAddress(String ipAddress) {
+        return IPAddressParser.parse(ipAddress) != IPAddressParser.NO_ADDRESS;
+    }
 
-        long result = 0;
-        for (String s : ipAddressInArray) {
-            result = result << 8 | Integer.parseInt(s);
-        }
-        return result;
+    /**
+     * @param ipAddress IP address
+     * @return text IP address to long value ex. 192.168.0.0 to 3232235521, -1 if the address is not valid
+     */
+    public static long ipToLong(String ipAddress) {
+        return IPAddressParser.parse(ipAddress);
     }
 
     /**
@@ -108,17 +142,12 @@ public class Utils {
      * @return the text ip format
      */
     public static String longToIp(long ip) {
-        Stack<String> stackIp = new Stack<>();
-        for (int i = 0; i <= 3; i++) {
-            long value = 255L << 8 * i & ip;
-            stackIp.push(String.valueOf(value >> 8 * i));
-        }
-        StringBuilder stringBuffer = new StringBuilder();
-        while (!stackIp.isEmpty()) {
-            stringBuffer.append(stackIp.pop()).append(".");
-        }
-        stringBuffer.replace(stringBuffer.length() - 1, stringBuffer.length(), "");
-        return stringBuffer.toString();
+        return new StringBuilder(15)
+                .append(ip >>> 24 & 255).append('.')
+                .append(ip >>> 16 & 255).append('.')
+                .append(ip >>> 8 & 255).append('.')
+                .append(ip & 255)
+                .toString();
     }
 
     /**
@@ -198,19 +227,14 @@ public class Utils {
                 fileChannel.read(buff, startPointer);
                 buff.flip();
 
-                while (buff.hasRemaining()) {
-                    StringBuilder ip = new StringBuilder();
-                    char c = (char) buff.get();
-                    while (c != '\n' && c != '\r') {
-                        ip.append(c);
-                        if (!buff.hasRemaining()) {
-                            break;
-                        }
-                        c = (char) buff.get();
-                    }
-                    if (!ip.isEmpty()) {
-                        Utils.isValidIPAddress(ip.toString());
+                int limit = buff.limit();
+                int lineStart = 0;
+                while (lineStart < limit) {
+                    int lineEnd = IPAddressParser.nextLineEnd(buff, lineStart, limit);
+                    if (lineEnd > lineStart) {
+                        IPAddressParser.parse(buff, lineStart, lineEnd);
                     }
+                    lineStart = lineEnd + 1;
                 }
                 buff.clear();
                 startPointer = (long) (Math.random() * remainingSize / 2);
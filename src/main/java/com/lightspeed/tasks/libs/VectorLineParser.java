@@ -0,0 +1,140 @@
+package com.lightspeed.tasks.libs;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Vectorized version of the line loop of {@link IPAddressParser}, built on the incubating Vector API.
+ * A window of 32 or 64 bytes is compared at once into bit masks of the line separators, dots and digits,
+ * a line inside the window is validated with the masks and its octets are packed from the digit values of the lanes.
+ * A line crossing a window, an octet with leading zeros longer than 3 digits and the tail of the range
+ * go to the scalar parser, so the results are the same as of {@link IPAddressParser#parse(ByteBuffer, int, int)}.
+ * Only loaded when {@link IPAddressParser#isVectorized()} is true. An instance is not thread-safe.
+ */
+public final class VectorLineParser {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED.length() >= 64 ? ByteVector.SPECIES_512 : ByteVector.SPECIES_256;
+    private static final int WINDOW_SIZE = SPECIES.length();
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private final byte[] digitValues = new byte[WINDOW_SIZE];
+    private final LineHandler lineHandler;
+
+    /**
+     * Receives the parsed non-empty lines.
+     */
+    @FunctionalInterface
+    public interface LineHandler {
+        /**
+         * @param address The address of the line, or {@link IPAddressParser#NO_ADDRESS}
+         * @throws InterruptedException if interrupted while passing the address on
+         */
+        void lineParsed(long address) throws InterruptedException;
+    }
+
+    /**
+     * @param lineHandler Called for every non-empty line in order
+     */
+    public VectorLineParser(LineHandler lineHandler) {
+        this.lineHandler = lineHandler;
+    }
+
+    /**
+     * @return The size of the vectors of the CPU in bits, the windows are emulated below 256
+     */
+    static int preferredVectorBitSize() {
+        return ByteVector.SPECIES_PREFERRED.vectorBitSize();
+    }
+
+    /**
+     * Parses every line in the range, the last line may be unterminated.
+     *
+     * @param buffer The buffer, read with absolute indexes
+     * @param from   Index of the first byte
+     * @param to     Index after the last byte
+     * @throws InterruptedException if interrupted while passing an address on
+     */
+    public void parseLines(ByteBuffer buffer, int from, int to) throws InterruptedException {
+        int lineStart = from;
+        int windowStart = from;
+        for (; windowStart + WINDOW_SIZE <= to; windowStart += WINDOW_SIZE) {
+            buffer.get(windowStart, window);
+            ByteVector bytes = ByteVector.fromArray(SPECIES, window, 0);
+            long lineEnds = bytes.eq((byte) '\n').or(bytes.eq((byte) '\r')).toLong();
+            if (lineEnds == 0) {
+                continue;
+            }
+            long dots = bytes.eq((byte) '.').toLong();
+            ByteVector values = bytes.sub((byte) '0');
+            //the unsigned compare takes the bytes below '0' as large values
+            long digits = values.compare(VectorOperators.UNSIGNED_LE, (byte) 9).toLong();
+            values.intoArray(digitValues, 0);
+
+            while (lineEnds != 0) {
+                int lineEnd = windowStart + Long.numberOfTrailingZeros(lineEnds);
+                lineEnds &= lineEnds - 1;
+                if (lineEnd > lineStart) {
+                    if (lineStart >= windowStart) {
+                        lineHandler.lineParsed(parse(buffer, lineStart, lineEnd, lineStart - windowStart, lineEnd - windowStart, dots, digits));
+                    } else {
+                        lineHandler.lineParsed(IPAddressParser.parse(buffer, lineStart, lineEnd));
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+
+        while (lineStart < to) {
+            int lineEnd = IPAddressParser.nextLineEnd(buffer, lineStart, to);
+            if (lineEnd > lineStart) {
+                lineHandler.lineParsed(IPAddressParser.parse(buffer, lineStart, lineEnd));
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Parses a line inside the current window by the masks of the window.
+     *
+     * @param start Index of the first byte of the line in the window
+     * @param end   Index after the last byte of the line in the window, below the window size
+     */
+    private long parse(ByteBuffer buffer, int from, int to, int start, int end, long dots, long digits) {
+        long lineMask = (1L << end) - (1L << start);
+        long lineDots = dots & lineMask;
+        if ((lineMask & ~(dots | digits)) != 0 || Long.bitCount(lineDots) != 3) {
+            return IPAddressParser.NO_ADDRESS;
+        }
+        int firstDot = Long.numberOfTrailingZeros(lineDots);
+        lineDots &= lineDots - 1;
+        int secondDot = Long.numberOfTrailingZeros(lineDots);
+        lineDots &= lineDots - 1;
+        int thirdDot = Long.numberOfTrailingZeros(lineDots);
+        if (firstDot - start > 3 || secondDot - firstDot > 4 || thirdDot - secondDot > 4 || end - thirdDot > 4) {
+            //leading zeros, rare enough for the scalar parser
+            return IPAddressParser.parse(buffer, from, to);
+        }
+        int first = octet(start, firstDot);
+        int second = octet(firstDot + 1, secondDot);
+        int third = octet(secondDot + 1, thirdDot);
+        int fourth = octet(thirdDot + 1, end);
+        //an empty octet is -1, a too large one is above 255
+        if ((first | second | third | fourth) < 0 || Math.max(Math.max(first, second), Math.max(third, fourth)) > 255) {
+            return IPAddressParser.NO_ADDRESS;
+        }
+        return (long) first << 24 | second << 16 | third << 8 | fourth;
+    }
+
+    /**
+     * @return The value of 1 to 3 digits, or -1 if there are none
+     */
+    private int octet(int start, int end) {
+        return switch (end - start) {
+            case 1 -> digitValues[start];
+            case 2 -> digitValues[start] * 10 + digitValues[start + 1];
+            case 3 -> digitValues[start] * 100 + digitValues[start + 1] * 10 + digitValues[start + 2];
+            default -> -1;
+        };
+    }
+}
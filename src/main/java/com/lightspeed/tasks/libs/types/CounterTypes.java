@@ -0,0 +1,20 @@
+package com.lightspeed.tasks.libs.types;
+
+public enum CounterTypes {
+    /**
+     * {@link #ADAPTIVE} for the files smaller than {@link com.lightspeed.tasks.libs.InitConfig#adaptiveCounterMaxFileSize()}, else {@link #BITMAP}.
+     */
+    AUTO,
+    /**
+     * One bit for every address of the 2^32 space, 512 MB allocated upfront.
+     */
+    BITMAP,
+    /**
+     * Sparse containers keyed by the high 16 bits, which turn into bitsets as they fill up.
+     */
+    ADAPTIVE,
+    /**
+     * Approximate count with a HyperLogLog sketch, a few kilobytes of memory.
+     */
+    HYPERLOGLOG;
+}
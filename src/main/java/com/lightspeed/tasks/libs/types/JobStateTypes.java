@@ -0,0 +1,24 @@
+package com.lightspeed.tasks.libs.types;
+
+public enum JobStateTypes {
+    /**
+     * The job waits for a free place in the pool.
+     */
+    QUEUED,
+    /**
+     * The job is scanning.
+     */
+    RUNNING,
+    /**
+     * The results are ready.
+     */
+    COMPLETED,
+    /**
+     * The scan stopped with an error.
+     */
+    FAILED,
+    /**
+     * The job was cancelled before or while scanning.
+     */
+    CANCELLED;
+}
@@ -0,0 +1,12 @@
+package com.lightspeed.tasks.libs.types;
+
+public enum ListFormatTypes {
+    /**
+     * Every distinct address on its own line in ascending order, ex. 10.0.0.1
+     */
+    ADDRESSES,
+    /**
+     * The smallest set of CIDR blocks covering exactly the distinct addresses, in ascending order, ex. 10.0.0.0/31
+     */
+    CIDR;
+}
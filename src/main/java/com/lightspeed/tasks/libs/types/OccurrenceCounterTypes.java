@@ -0,0 +1,16 @@
+package com.lightspeed.tasks.libs.types;
+
+public enum OccurrenceCounterTypes {
+    /**
+     * {@link #OFF_HEAP} when it takes at most half of the memory budget, else {@link #SKETCH}.
+     */
+    AUTO,
+    /**
+     * Exact counts, a saturating byte counter off the heap for every address of the 2^32 space, 4 GB allocated upfront.
+     */
+    OFF_HEAP,
+    /**
+     * Approximate counts with a count-min sketch sized by the memory budget, never below the exact counts.
+     */
+    SKETCH;
+}
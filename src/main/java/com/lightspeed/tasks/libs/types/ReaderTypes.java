@@ -0,0 +1,17 @@
+package com.lightspeed.tasks.libs.types;
+
+public enum ReaderTypes {
+    /**
+     * Every chunk is copied from the file into a direct buffer with {@link java.nio.channels.FileChannel#read}.
+     */
+    COPY,
+    /**
+     * Every chunk is memory-mapped with {@link java.nio.channels.FileChannel#map} and parsed straight from the page cache.
+     */
+    MAPPED,
+    /**
+     * The chunks are copied like {@link #COPY} by a few platform I/O threads that keep several chunks read ahead,
+     * the workers only parse the filled buffers, so the reads and the parsing overlap.
+     */
+    READ_AHEAD;
+}
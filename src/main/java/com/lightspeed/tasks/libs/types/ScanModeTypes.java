@@ -0,0 +1,12 @@
+package com.lightspeed.tasks.libs.types;
+
+public enum ScanModeTypes {
+    /**
+     * The chunk workers send the parsed addresses through a shared queue to a pool of consumers.
+     */
+    QUEUE,
+    /**
+     * The chunk workers mark the parsed addresses in the bitmap themselves, no queue and no consumers.
+     */
+    FUSED;
+}
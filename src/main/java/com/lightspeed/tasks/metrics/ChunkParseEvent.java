@@ -0,0 +1,19 @@
+package com.lightspeed.tasks.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The parsing of one chunk, the duration includes the waits for the share queue in the QUEUE mode.
+ */
+@Name("com.lightspeed.tasks.ChunkParse")
+@Label("Chunk Parse")
+@Category("IP Address Scanner")
+public class ChunkParseEvent extends Event {
+    @Label("Lines")
+    public long lines;
+    @Label("Invalid Lines")
+    public long invalidLines;
+}
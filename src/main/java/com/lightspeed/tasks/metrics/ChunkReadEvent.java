@@ -0,0 +1,24 @@
+package com.lightspeed.tasks.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The read of one chunk of an input file, the duration is the read latency.
+ */
+@Name("com.lightspeed.tasks.ChunkRead")
+@Label("Chunk Read")
+@Category("IP Address Scanner")
+public class ChunkReadEvent extends Event {
+    @Label("File")
+    public String file;
+    @Label("Offset")
+    @DataAmount
+    public long offset;
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,17 @@
+package com.lightspeed.tasks.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The chunk workers paused by the memory monitor, from the pause to the resume.
+ */
+@Name("com.lightspeed.tasks.ExecutorPause")
+@Label("Executor Pause")
+@Category("IP Address Scanner")
+public class ExecutorPauseEvent extends Event {
+    @Label("Active Workers")
+    public int activeCount;
+}
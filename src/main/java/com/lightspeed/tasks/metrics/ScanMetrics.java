@@ -0,0 +1,250 @@
+package com.lightspeed.tasks.metrics;
+
+import com.lightspeed.tasks.cardinality.AddressBitmap;
+import com.lightspeed.tasks.cardinality.AddressCounter;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and timers of the pipeline stages: the chunk reads, the line parsing, the share queue,
+ * the bitmap and the pauses of the workers. The stages add to them once per chunk or batch, not per line.
+ */
+public class ScanMetrics implements ScanMetricsMBean {
+    public static final String OBJECT_NAME = "com.lightspeed.tasks:type=ScanMetrics";
+    private static final AtomicLong INSTANCE_COUNT = new AtomicLong(0);
+    private final String name = "scanner-" + INSTANCE_COUNT.incrementAndGet();
+    private ObjectName registeredName;
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder chunksRead = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAccumulator maxReadNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder linesParsed = new LongAdder();
+    private final LongAdder invalidLines = new LongAdder();
+    private final LongAdder queuePutCount = new LongAdder();
+    private final LongAdder queuePutWaitNanos = new LongAdder();
+    private final LongAdder queueTakeCount = new LongAdder();
+    private final LongAdder queueTakeWaitNanos = new LongAdder();
+    private final LongAdder pauseCount = new LongAdder();
+    private final LongAdder pausedNanos = new LongAdder();
+    private volatile int workerCount = 0;
+    private volatile AddressCounter addressCounter;
+    private volatile long completedContendedWriteCount = 0;
+    private volatile long startNanos = System.nanoTime();
+    private volatile long endNanos = 0;
+
+    /**
+     * @return The name of the MBean, {@value #OBJECT_NAME} with the name key of this instance,
+     * so the scanners of one JVM are registered side by side
+     */
+    public String getObjectName() {
+        return OBJECT_NAME + ",name=" + name;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, nothing happens if they are registered already.
+     */
+    public synchronized void register() {
+        if (registeredName != null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName(getObjectName());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            registeredName = objectName;
+        } catch (JMException e) {
+            System.out.println("The metrics can't be registered: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, called when the scanner is closed.
+     */
+    public synchronized void unregister() {
+        if (registeredName == null) {
+            return;
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.unregisterMBean(registeredName);
+        } catch (InstanceNotFoundException ignored) {
+            //unregistered by someone else
+        } catch (JMException e) {
+            System.out.println("The metrics can't be unregistered: " + e.getMessage());
+        }
+        registeredName = null;
+    }
+
+    /**
+     * Called at the start of a run, the counts of the previous run are dropped.
+     *
+     * @param addressCounter The counter of the run
+     */
+    public void scanStarted(AddressCounter addressCounter) {
+        this.addressCounter = addressCounter;
+        completedContendedWriteCount = 0;
+        for (LongAdder counter : new LongAdder[]{bytesRead, chunksRead, readNanos, linesParsed, invalidLines,
+                queuePutCount, queuePutWaitNanos, queueTakeCount, queueTakeWaitNanos, pauseCount, pausedNanos}) {
+            counter.reset();
+        }
+        maxReadNanos.reset();
+        startNanos = System.nanoTime();
+        endNanos = 0;
+    }
+
+    /**
+     * Called at the end of a run, the counter may be reused by another scan after it.
+     */
+    public void scanCompleted() {
+        completedContendedWriteCount = getBitmapContendedWriteCount();
+        addressCounter = null;
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * @param bytes The count of bytes read
+     * @param nanos The read latency
+     */
+    public void chunkRead(long bytes, long nanos) {
+        bytesRead.add(bytes);
+        chunksRead.increment();
+        readNanos.add(nanos);
+        maxReadNanos.accumulate(nanos);
+    }
+
+    /**
+     * @param lines        The count of non-empty lines
+     * @param invalidLines The count of the lines that are not valid addresses
+     */
+    public void linesParsed(long lines, long invalidLines) {
+        linesParsed.add(lines);
+        this.invalidLines.add(invalidLines);
+    }
+
+    /**
+     * @param count     The count of batches put into the share queue
+     * @param waitNanos The time spent waiting for a free place
+     */
+    public void queuePut(long count, long waitNanos) {
+        queuePutCount.add(count);
+        queuePutWaitNanos.add(waitNanos);
+    }
+
+    /**
+     * @param count     The count of batches taken from the share queue
+     * @param waitNanos The time spent waiting for a batch
+     */
+    public void queueTake(long count, long waitNanos) {
+        queueTakeCount.add(count);
+        queueTakeWaitNanos.add(waitNanos);
+    }
+
+    /**
+     * @param nanos The time the workers were paused
+     */
+    public void paused(long nanos) {
+        pauseCount.increment();
+        pausedNanos.add(nanos);
+    }
+
+    /**
+     * @param workerCount The count of the chunk workers set by the concurrency control
+     */
+    public void workerCountChanged(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getChunksRead() {
+        return chunksRead.sum();
+    }
+
+    @Override
+    public double getAverageReadLatencyMillis() {
+        long count = chunksRead.sum();
+        return count == 0 ? 0 : readNanos.sum() / 1e6 / count;
+    }
+
+    @Override
+    public double getMaxReadLatencyMillis() {
+        return maxReadNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getLinesParsed() {
+        return linesParsed.sum();
+    }
+
+    @Override
+    public long getInvalidLines() {
+        return invalidLines.sum();
+    }
+
+    @Override
+    public long getQueuePutCount() {
+        return queuePutCount.sum();
+    }
+
+    @Override
+    public double getQueuePutWaitMillis() {
+        return queuePutWaitNanos.sum() / 1e6;
+    }
+
+    @Override
+    public long getQueueTakeCount() {
+        return queueTakeCount.sum();
+    }
+
+    @Override
+    public double getQueueTakeWaitMillis() {
+        return queueTakeWaitNanos.sum() / 1e6;
+    }
+
+    @Override
+    public long getBitmapContendedWriteCount() {
+        return addressCounter instanceof AddressBitmap addressBitmap ? addressBitmap.getContendedWriteCount() : completedContendedWriteCount;
+    }
+
+    @Override
+    public long getPauseCount() {
+        return pauseCount.sum();
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    @Override
+    public double getPausedMillis() {
+        return pausedNanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getElapsedMillis() {
+        long end = endNanos;
+        return ((end == 0 ? System.nanoTime() : end) - startNanos) / 1e6;
+    }
+
+    @Override
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"elapsedMillis\":%.3f,\"bytesRead\":%d,\"chunksRead\":%d,\"averageReadLatencyMillis\":%.3f,\"maxReadLatencyMillis\":%.3f,"
+                        + "\"linesParsed\":%d,\"invalidLines\":%d,\"queuePutCount\":%d,\"queuePutWaitMillis\":%.3f,\"queueTakeCount\":%d,\"queueTakeWaitMillis\":%.3f,"
+                        + "\"bitmapContendedWriteCount\":%d,\"pauseCount\":%d,\"pausedMillis\":%.3f,\"workerCount\":%d}",
+                getElapsedMillis(), getBytesRead(), getChunksRead(), getAverageReadLatencyMillis(), getMaxReadLatencyMillis(),
+                getLinesParsed(), getInvalidLines(), getQueuePutCount(), getQueuePutWaitMillis(), getQueueTakeCount(), getQueueTakeWaitMillis(),
+                getBitmapContendedWriteCount(), getPauseCount(), getPausedMillis(), getWorkerCount());
+    }
+}
@@ -0,0 +1,41 @@
+package com.lightspeed.tasks.metrics;
+
+/**
+ * The JMX view of {@link ScanMetrics}, registered as {@value ScanMetrics#OBJECT_NAME} with the name of the scanner.
+ */
+public interface ScanMetricsMBean {
+    long getBytesRead();
+
+    long getChunksRead();
+
+    double getAverageReadLatencyMillis();
+
+    double getMaxReadLatencyMillis();
+
+    long getLinesParsed();
+
+    long getInvalidLines();
+
+    long getQueuePutCount();
+
+    double getQueuePutWaitMillis();
+
+    long getQueueTakeCount();
+
+    double getQueueTakeWaitMillis();
+
+    long getBitmapContendedWriteCount();
+
+    long getPauseCount();
+
+    int getWorkerCount();
+
+    double getPausedMillis();
+
+    double getElapsedMillis();
+
+    /**
+     * @return All the metrics as a JSON object
+     */
+    String toJson();
+}
@@ -0,0 +1,148 @@
+package com.lightspeed.tasks.service;
+
+import com.lightspeed.tasks.balance.BalancerManager;
+import com.lightspeed.tasks.cardinality.AddressIndex;
+import com.lightspeed.tasks.data.AddressesResults;
+import com.lightspeed.tasks.data.ScanProgress;
+import com.lightspeed.tasks.libs.types.JobStateTypes;
+
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * One scan submitted to {@link ScanService}, runs in a thread of the shared job pool.
+ */
+public class ScanJob implements Runnable {
+    private static final long PROGRESS_INTERVAL_MILLIS = 500;
+    private final long id;
+    private final String input;
+    private final BalancerManager balancerManager;
+    private final AtomicReference<JobStateTypes> state = new AtomicReference<>(JobStateTypes.QUEUED);
+    private volatile ScanProgress scanProgress;
+    private volatile AddressesResults addressesResults;
+    private volatile String error;
+    private volatile Future<?> future;
+
+    /**
+     *
+     * @param id      The job number
+     * @param input   The scanned input as given in the request
+     * @param builder The configured scanner, the job adds its progress listener and builds it
+     * @throws IllegalArgumentException if the input has no files
+     * @throws IllegalStateException    if the options can't be combined
+     */
+    public ScanJob(long id, String input, BalancerManager.BalancerManagerBuilder builder) {
+        this.id = id;
+        this.input = input;
+        this.balancerManager = builder.setProgressListener(this::setProgress, PROGRESS_INTERVAL_MILLIS).build();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public JobStateTypes getState() {
+        return state.get();
+    }
+
+    private void setProgress(ScanProgress scanProgress) {
+        this.scanProgress = scanProgress;
+    }
+
+    /**
+     * @return The index of the completed scan, or null if it is not completed, not indexed or released
+     */
+    public AddressIndex getAddressIndex() {
+        return state.get() == JobStateTypes.COMPLETED ? balancerManager.getAddressIndex() : null;
+    }
+
+    /**
+     * Frees the memory of the index, the results of the job stay.
+     */
+    public void releaseAddressIndex() {
+        balancerManager.releaseAddressIndex();
+    }
+
+    /**
+     * @param future The future of the job in the pool, used to cancel it
+     */
+    public void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    @Override
+    public void run() {
+        if (!state.compareAndSet(JobStateTypes.QUEUED, JobStateTypes.RUNNING)) {
+            return;
+        }
+        try {
+            addressesResults = balancerManager.runScanner();
+            state.set(JobStateTypes.COMPLETED);
+        } catch (CancellationException e) {
+            state.set(JobStateTypes.CANCELLED);
+        } catch (RuntimeException e) {
+            error = String.valueOf(e.getMessage());
+            state.set(JobStateTypes.FAILED);
+        } finally {
+            //The service runs many jobs in one JVM, their metrics leave with them
+            balancerManager.close();
+        }
+    }
+
+    /**
+     * Removes a queued job from the pool or interrupts a running one.
+     */
+    public void cancel() {
+        state.compareAndSet(JobStateTypes.QUEUED, JobStateTypes.CANCELLED);
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT, "{\"id\":%d,\"input\":%s,\"state\":\"%s\"", id, toJsonString(input), state.get()));
+        ScanProgress progress = scanProgress;
+        if (progress != null) {
+            json.append(String.format(Locale.ROOT, ",\"progress\":{\"completedChunks\":%d,\"totalChunks\":%d,\"bytesRead\":%d,\"totalBytes\":%d}",
+                    progress.completedChunks(), progress.totalChunks(), progress.bytesRead(), progress.totalBytes()));
+        }
+        AddressesResults results = addressesResults;
+        if (results != null) {
+            String fileResults = results.fileResults().stream()
+                    .map(fileResult -> String.format(Locale.ROOT, "{\"fileName\":%s,\"totalCountOfIPAddresses\":%d}", toJsonString(fileResult.fileName()), fileResult.totalCountOfIPAddresses()))
+                    .collect(Collectors.joining(","));
+            String topAddresses = results.topAddresses().stream()
+                    .map(addressOccurrence -> String.format(Locale.ROOT, "{\"ipAddress\":%s,\"count\":%d}", toJsonString(addressOccurrence.ipAddress()), addressOccurrence.count()))
+                    .collect(Collectors.joining(","));
+            json.append(String.format(Locale.ROOT, ",\"results\":{\"countOfUniqueIPAddresses\":%d,\"totalCountOfIPAddresses\":%d,\"standardError\":%.6f,\"fileResults\":[%s],\"topAddresses\":[%s]}",
+                    results.countOfUniqueIPAddresses(), results.totalCountOfIPAddresses(), results.standardError(), fileResults, topAddresses));
+        }
+        if (error != null) {
+            json.append(",\"error\":").append(toJsonString(error));
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * @param value The text to quote
+     * @return The text as a JSON string with the quotes, the backslashes and the control characters escaped
+     */
+    static String toJsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,362 @@
+package com.lightspeed.tasks.service;
+
+import com.lightspeed.tasks.balance.BalancerManager;
+import com.lightspeed.tasks.balance.InterruptionThreadPoolExecutor;
+import com.lightspeed.tasks.cardinality.AddressBitmapPool;
+import com.lightspeed.tasks.cardinality.AddressIndex;
+import com.lightspeed.tasks.libs.Utils;
+import com.lightspeed.tasks.libs.types.JobStateTypes;
+import com.lightspeed.tasks.libs.types.ListFormatTypes;
+import com.lightspeed.tasks.libs.types.OccurrenceCounterTypes;
+import com.lightspeed.tasks.libs.types.CounterTypes;
+import com.lightspeed.tasks.libs.types.PercentTypes;
+import com.lightspeed.tasks.libs.types.ReaderTypes;
+import com.lightspeed.tasks.libs.types.ScanModeTypes;
+import com.lightspeed.tasks.metrics.ScanMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scans on a local HTTP endpoint in a long-running JVM, so a scan costs only the scanning: the classes are loaded and compiled,
+ * the bitmaps are pooled and the worker count is tuned while scanning instead of probing the file.
+ * The jobs share a pool of a few scans at once, a queued job starts when the free memory is above the limit.
+ * <pre>
+ * POST   /scans?input=logs/*.txt[&amp;mode=FUSED][&amp;reader=COPY][&amp;counter=AUTO][&amp;export=file][&amp;list=file[&amp;listFormat=CIDR]][&amp;index=true][&amp;top=10[&amp;topCounter=SKETCH]]   submits a job
+ * GET    /scans               the jobs
+ * GET    /scans/{id}          the state, the live progress and the results of a job
+ * DELETE /scans/{id}          cancels a job, or forgets a finished one and frees its bitmap
+ * Only the newest indexes fitting into the memory budget are kept, the queries of an older job answer 409.
+ * GET    /scans/{id}/contains?address=10.1.2.3     if an address was seen by an indexed job
+ * GET    /scans/{id}/count?cidr=10.0.0.0/8         the distinct count of a range
+ * GET    /scans/{id}/histogram?prefix=16           the distinct counts of the non-empty /8, /16 or /24 ranges
+ * </pre>
+ * The parameters are read from the query or from a form body, the responses are JSON.
+ * A POST must carry the {@value #CLIENT_HEADER} header, a web page can't send it to another origin without a preflight,
+ * so a page open in a browser can't submit scans. The export and list files are written only in the output directory.
+ */
+public class ScanService implements Closeable {
+    private static final String CONTEXT_PATH = "/scans";
+    /**
+     * The header required on a POST, any value.
+     */
+    public static final String CLIENT_HEADER = "X-Scan-Client";
+    /**
+     * The finished jobs above this count are forgotten, the oldest first.
+     */
+    private static final int MAX_JOB_COUNT = 1000;
+    /**
+     * The indexes above the count fitting into the memory budget are released, the oldest job first.
+     */
+    private final int maxIndexCount;
+    private final HttpServer httpServer;
+    private final InterruptionThreadPoolExecutor jobExecutor;
+    private final AddressBitmapPool addressBitmapPool;
+    private final PercentTypes grabOfFreeMemoryPercent;
+    private final Path outputDirectory;
+    private final AtomicLong lastJobId = new AtomicLong();
+    private final Map<Long, ScanJob> jobs = new LinkedHashMap<>();
+
+    /**
+     *
+     * @param port                    The port on the loopback address, 0 for any free one
+     * @param concurrentScanCount     The count of scans running at once
+     * @param grabOfFreeMemoryPercent The percentage of the free memory the scans may use
+     * @param outputDirectory         The directory of the export and list files, or null to refuse them
+     * @throws IOException if the port can't be bound or the output directory doesn't exist
+     */
+    public ScanService(int port, int concurrentScanCount, PercentTypes grabOfFreeMemoryPercent, Path outputDirectory) throws IOException {
+        this.grabOfFreeMemoryPercent = grabOfFreeMemoryPercent;
+        //the real path, a link inside the directory can't lead out of it
+        this.outputDirectory = outputDirectory != null ? outputDirectory.toRealPath() : null;
+        this.addressBitmapPool = new AddressBitmapPool(concurrentScanCount);
+        //Every index holds a bitmap, the running scans need theirs too
+        long memoryBudget = Runtime.getRuntime().maxMemory() / 100 * grabOfFreeMemoryPercent.getValue();
+        this.maxIndexCount = (int) Math.max(memoryBudget / AddressIndex.MEMORY_SIZE - concurrentScanCount, 1);
+        this.jobExecutor = InterruptionThreadPoolExecutor.newFixedThreadPool(concurrentScanCount, Thread.ofPlatform().name("scan-job-", 0).factory(),
+                PercentTypes.fromValue(100 - grabOfFreeMemoryPercent.getValue()), new ScanMetrics());
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.httpServer.createContext(CONTEXT_PATH, this::handle);
+        this.httpServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    public void start() {
+        httpServer.start();
+    }
+
+    /**
+     * @return The bound port
+     */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting the requests and cancels the jobs.
+     */
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        synchronized (jobs) {
+            jobs.values().forEach(ScanJob::cancel);
+        }
+        jobExecutor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            try {
+                route(exchange);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                //a started response can't be replaced, the client sees the broken body
+                if (exchange.getResponseCode() < 0) {
+                    send(exchange, 500, error("Internal error: " + e));
+                }
+            }
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals(CONTEXT_PATH) || path.equals(CONTEXT_PATH + "/")) {
+            switch (method) {
+                case "POST" -> submit(exchange);
+                case "GET" -> send(exchange, 200, listJobs());
+                default -> send(exchange, 405, error("Method not allowed"));
+            }
+            return;
+        }
+        //the job id and the query, if any
+        String[] pathParts = path.substring(CONTEXT_PATH.length() + 1).split("/", 2);
+        ScanJob scanJob;
+        try {
+            long id = Long.parseLong(pathParts[0]);
+            synchronized (jobs) {
+                scanJob = jobs.get(id);
+            }
+        } catch (NumberFormatException e) {
+            scanJob = null;
+        }
+        if (scanJob == null) {
+            send(exchange, 404, error("No such job: " + path));
+            return;
+        }
+        if (pathParts.length > 1) {
+            if (method.equals("GET")) {
+                query(exchange, scanJob, pathParts[1]);
+            } else {
+                send(exchange, 405, error("Method not allowed"));
+            }
+            return;
+        }
+        switch (method) {
+            case "GET" -> send(exchange, 200, scanJob.toJson());
+            case "DELETE" -> {
+                if (scanJob.getState() == JobStateTypes.QUEUED || scanJob.getState() == JobStateTypes.RUNNING) {
+                    scanJob.cancel();
+                } else {
+                    synchronized (jobs) {
+                        jobs.remove(scanJob.getId());
+                    }
+                }
+                send(exchange, 200, scanJob.toJson());
+            }
+            default -> send(exchange, 405, error("Method not allowed"));
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestHeaders().containsKey(CLIENT_HEADER)) {
+            send(exchange, 403, error("The " + CLIENT_HEADER + " header is required"));
+            return;
+        }
+        Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+        parameters.putAll(parseParameters(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+        String input = parameters.get("input");
+        if (input == null || input.isBlank()) {
+            send(exchange, 400, error("The input parameter is required"));
+            return;
+        }
+        ScanJob scanJob;
+        try {
+            BalancerManager.BalancerManagerBuilder builder = new BalancerManager.BalancerManagerBuilder(input)
+                    .setGrabOfFreeMemoryPercent(grabOfFreeMemoryPercent)
+                    .setScanMode(ScanModeTypes.valueOf(parameters.getOrDefault("mode", ScanModeTypes.FUSED.name())))
+                    .setReaderType(ReaderTypes.valueOf(parameters.getOrDefault("reader", ReaderTypes.COPY.name())))
+                    .setCounterType(CounterTypes.valueOf(parameters.getOrDefault("counter", CounterTypes.AUTO.name())))
+                    .setAddressBitmapPool(addressBitmapPool)
+                    .setIndexed(Boolean.parseBoolean(parameters.get("index")));
+            if (parameters.containsKey("export")) {
+                builder.setExportFile(resolveOutputFile(parameters.get("export")).toString());
+            }
+            if (parameters.containsKey("top")) {
+                builder.setTopAddresses(Integer.parseInt(parameters.get("top")),
+                        OccurrenceCounterTypes.valueOf(parameters.getOrDefault("topCounter", OccurrenceCounterTypes.AUTO.name())));
+            }
+            if (parameters.containsKey("list")) {
+                builder.setListFile(resolveOutputFile(parameters.get("list")).toString(), ListFormatTypes.valueOf(parameters.getOrDefault("listFormat", ListFormatTypes.ADDRESSES.name())));
+            }
+            scanJob = new ScanJob(lastJobId.incrementAndGet(), input, builder);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            send(exchange, 400, error(String.valueOf(e.getMessage())));
+            return;
+        }
+        synchronized (jobs) {
+            jobs.put(scanJob.getId(), scanJob);
+            removeFinishedJobs();
+        }
+        scanJob.setFuture(jobExecutor.submit(() -> {
+            scanJob.run();
+            releaseOldIndexes();
+        }));
+        send(exchange, 202, scanJob.toJson());
+    }
+
+    private void query(HttpExchange exchange, ScanJob scanJob, String query) throws IOException {
+        AddressIndex addressIndex = scanJob.getAddressIndex();
+        if (addressIndex == null) {
+            send(exchange, 409, error("The job is not completed, not indexed or its index is released: " + scanJob.getId()));
+            return;
+        }
+        Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+        try {
+            switch (query) {
+                case "contains" -> {
+                    String address = parameters.getOrDefault("address", "");
+                    long parsedAddress = Utils.ipToLong(address);
+                    if (parsedAddress < 0) {
+                        throw new IllegalArgumentException("Invalid address: " + address);
+                    }
+                    send(exchange, 200, "{\"address\":" + ScanJob.toJsonString(address) + ",\"contains\":" + addressIndex.contains((int) parsedAddress) + "}");
+                }
+                case "count" -> {
+                    String cidr = parameters.getOrDefault("cidr", "");
+                    send(exchange, 200, "{\"cidr\":" + ScanJob.toJsonString(cidr) + ",\"count\":" + addressIndex.count(cidr) + "}");
+                }
+                case "histogram" -> {
+                    int prefixLength = Integer.parseInt(parameters.getOrDefault("prefix", "16"));
+                    if (prefixLength != 8 && prefixLength != 16 && prefixLength != 24) {
+                        throw new IllegalArgumentException("The prefix must be 8, 16 or 24: " + prefixLength);
+                    }
+                    int[] counts = addressIndex.histogram(prefixLength);
+                    int shift = Integer.SIZE - prefixLength;
+                    StringBuilder json = new StringBuilder("{\"prefix\":").append(prefixLength).append(",\"counts\":{");
+                    String separator = "";
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] > 0) {
+                            json.append(separator).append('"').append(Utils.longToIp((long) i << shift)).append('/').append(prefixLength).append("\":").append(counts[i]);
+                            separator = ",";
+                        }
+                    }
+                    send(exchange, 200, json.append("}}").toString());
+                }
+                default -> send(exchange, 404, error("No such query: " + query));
+            }
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error(String.valueOf(e.getMessage())));
+        }
+    }
+
+    /**
+     * @param fileName The file name relative to the output directory
+     * @return The file in the output directory
+     * @throws IllegalArgumentException if there is no output directory or the file is outside of it
+     */
+    private Path resolveOutputFile(String fileName) {
+        if (outputDirectory == null) {
+            throw new IllegalArgumentException("The service has no output directory for the export and list files");
+        }
+        Path outputFile = outputDirectory.resolve(fileName).normalize();
+        try {
+            Path parent = outputFile.getParent();
+            if (!outputFile.startsWith(outputDirectory) || outputFile.equals(outputDirectory)
+                    || !Files.isDirectory(parent) || !parent.toRealPath().startsWith(outputDirectory)) {
+                throw new IllegalArgumentException("The file must be in the output directory: " + fileName);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The file must be in the output directory: " + fileName);
+        }
+        return outputFile;
+    }
+
+    private void releaseOldIndexes() {
+        List<ScanJob> indexedJobs = new ArrayList<>();
+        synchronized (jobs) {
+            for (ScanJob scanJob : jobs.values()) {
+                if (scanJob.getAddressIndex() != null) {
+                    indexedJobs.add(scanJob);
+                }
+            }
+        }
+        //the jobs are in the submit order
+        for (int i = 0; i < indexedJobs.size() - maxIndexCount; i++) {
+            indexedJobs.get(i).releaseAddressIndex();
+        }
+    }
+
+    private void removeFinishedJobs() {
+        var iterator = jobs.values().iterator();
+        while (jobs.size() > MAX_JOB_COUNT && iterator.hasNext()) {
+            switch (iterator.next().getState()) {
+                case COMPLETED, FAILED, CANCELLED -> iterator.remove();
+                default -> {
+                }
+            }
+        }
+    }
+
+    private String listJobs() {
+        List<String> jobJsons = new ArrayList<>();
+        synchronized (jobs) {
+            for (ScanJob scanJob : jobs.values()) {
+                jobJsons.add(scanJob.toJson());
+            }
+        }
+        return "[" + String.join(",", jobJsons) + "]";
+    }
+
+    private static Map<String, String> parseParameters(String encoded) {
+        Map<String, String> parameters = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : encoded.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + ScanJob.toJsonString(message) + "}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+}
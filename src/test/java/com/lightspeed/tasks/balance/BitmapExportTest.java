@@ -0,0 +1,119 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.cardinality.AddressBitmap;
+import com.lightspeed.tasks.data.AddressesResults;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The merge of the exports must hold exactly the union of the exported bitmaps and the sum of their totals.
+ */
+class BitmapExportTest {
+    private static final int MAX_ARRAY_CONTAINER_SIZE = AddressBitmap.CONTAINER_WORD_COUNT * Long.BYTES / Character.BYTES;
+    private static final int[] CARDINALITIES = {1, MAX_ARRAY_CONTAINER_SIZE - 1, MAX_ARRAY_CONTAINER_SIZE, MAX_ARRAY_CONTAINER_SIZE + 1,
+            AddressBitmap.CONTAINER_WORD_COUNT * Long.SIZE};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void mergesTheExports() throws IOException {
+        Path firstPath = directory.resolve("first.bitmap");
+        Path secondPath = directory.resolve("second.bitmap");
+        AddressBitmap addressBitmap = new AddressBitmap();
+        //the same addresses in every container, once with duplicates counted in the total
+        fillContainers(addressBitmap, 0, 0);
+        addressBitmap.add(0);
+        BitmapExport.write(firstPath, addressBitmap);
+        long firstTotalCount = addressBitmap.getTotalCount();
+        long firstUniqueCount = addressBitmap.getUniqueCount();
+
+        //partly overlapping addresses in the same containers and containers of their own
+        addressBitmap.clear();
+        fillContainers(addressBitmap, 1, 0);
+        fillContainers(addressBitmap, 0, 5);
+        BitmapExport.write(secondPath, addressBitmap);
+        long secondTotalCount = addressBitmap.getTotalCount();
+
+        //the second bitmap becomes the union of both
+        fillContainers(addressBitmap, 0, 0);
+        addressBitmap.add(0);
+        long uniqueCount = addressBitmap.getUniqueCount();
+        assertTrue(uniqueCount > firstUniqueCount);
+
+        for (int threadCount : new int[]{1, 3, 64}) {
+            AddressBitmap mergedBitmap = BitmapExport.merge(List.of(firstPath, secondPath), threadCount);
+            assertEquals(uniqueCount, mergedBitmap.getUniqueCount());
+            assertEquals(firstTotalCount + secondTotalCount, mergedBitmap.getTotalCount());
+        }
+
+        AddressesResults addressesResults = BitmapExport.merge(List.of(firstPath, secondPath));
+        assertEquals(uniqueCount, addressesResults.countOfUniqueIPAddresses());
+        assertEquals(firstTotalCount + secondTotalCount, addressesResults.totalCountOfIPAddresses());
+        assertEquals(firstTotalCount, addressesResults.fileResults().get(0).totalCountOfIPAddresses());
+        assertEquals(secondTotalCount, addressesResults.fileResults().get(1).totalCountOfIPAddresses());
+    }
+
+    @Test
+    void mergesTheSameBits() throws IOException {
+        Path exportPath = directory.resolve("scan.bitmap");
+        AddressBitmap addressBitmap = new AddressBitmap();
+        fillContainers(addressBitmap, 0, 0);
+        BitmapExport.write(exportPath, addressBitmap);
+
+        AddressBitmap mergedBitmap = BitmapExport.merge(List.of(exportPath), 2);
+        assertEquals(addressBitmap.getUniqueCount(), mergedBitmap.getUniqueCount());
+        assertEquals(addressBitmap.getTotalCount(), mergedBitmap.getTotalCount());
+        //the merged bits are the exported ones, the union with them adds nothing
+        long uniqueCount = mergedBitmap.getUniqueCount();
+        fillContainers(mergedBitmap, 0, 0);
+        assertEquals(uniqueCount, mergedBitmap.getUniqueCount());
+    }
+
+    @Test
+    void refusesTruncatedExports() throws IOException {
+        Path exportPath = directory.resolve("scan.bitmap");
+        AddressBitmap addressBitmap = new AddressBitmap();
+        fillContainers(addressBitmap, 0, 0);
+        BitmapExport.write(exportPath, addressBitmap);
+
+        byte[] data = Files.readAllBytes(exportPath);
+        Path truncatedPath = directory.resolve("truncated.bitmap");
+        for (int length = 0; length < data.length; length += length < 24 ? 1 : 1021) {
+            Files.write(truncatedPath, Arrays.copyOf(data, length));
+            assertThrows(IOException.class, () -> BitmapExport.merge(List.of(exportPath, truncatedPath), 1), "length " + length);
+        }
+        Files.write(truncatedPath, Arrays.copyOf(data, data.length - 1));
+        assertThrows(IOException.class, () -> BitmapExport.merge(List.of(truncatedPath), 1));
+
+        Files.writeString(truncatedPath, "1.2.3.4\n5.6.7.8\n9.10.11.12\n");
+        assertThrows(IOException.class, () -> BitmapExport.merge(List.of(truncatedPath), 1));
+    }
+
+    /**
+     * Sets a container of every cardinality around the switch to the word containers.
+     *
+     * @param variant  Moves the addresses inside the containers, so two variants overlap only partly
+     * @param keyShift Moves the containers
+     */
+    private static void fillContainers(AddressBitmap addressBitmap, int variant, int keyShift) {
+        for (int i = 0; i < CARDINALITIES.length; i++) {
+            int key = (i * 4099 + keyShift) % AddressBitmap.CONTAINER_COUNT;
+            //the odd stride visits every low address once
+            int stride = 2 * (i + variant) + 1;
+            for (int j = 0; j < CARDINALITIES[i]; j++) {
+                addressBitmap.add(key << 16 | (j * stride + variant * 7) & 0xFFFF);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.data.ChunkRange;
+import com.lightspeed.tasks.libs.IPAddressParser;
+import com.lightspeed.tasks.libs.InitConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The chunks must end on line boundaries and together hold the same addresses as the whole file.
+ */
+class ChunkPlannerTest {
+    private static final int MAX_LINE_LENGTH = InitConfig.DEFAULT.maxLineLength();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void endsAtASeparatorOnTheChunkEnd() throws IOException {
+        //every line is as long as a chunk, so the separator is the last byte of the nominal chunk
+        String text = "1.2.3.4\n5.6.7.8\n9.9.9.9\n";
+        List<ChunkRange> chunks = planChunks(text, 8);
+        assertEquals(List.of(new ChunkRange(0, 0, 8), new ChunkRange(1, 8, 8), new ChunkRange(2, 16, 8)), chunks);
+        assertEquals(List.of(0x01020304L, 0x05060708L, 0x09090909L), chunkAddresses(text, chunks));
+
+        //the separator is the first byte after the nominal chunk
+        chunks = planChunks(text, 7);
+        assertEquals(List.of(new ChunkRange(0, 0, 8), new ChunkRange(1, 8, 8), new ChunkRange(2, 16, 8)), chunks);
+        //the separator is one byte into the next nominal chunk
+        chunks = planChunks("1.2.3.4\n5.6.7.8\n", 9);
+        assertEquals(List.of(new ChunkRange(0, 0, 16)), chunks);
+    }
+
+    @Test
+    void splitsACarriageReturnAndLineFeed() throws IOException {
+        //the chunk ends after the \r, the \n starts the next chunk as an empty line
+        String text = "1.2.3.4\r\n5.6.7.8\r\n9.9.9.9";
+        List<ChunkRange> chunks = planChunks(text, 8);
+        assertEquals(new ChunkRange(0, 0, 8), chunks.getFirst());
+        assertEquals(8, chunks.get(1).startPointer());
+        assertEquals(List.of(0x01020304L, 0x05060708L, 0x09090909L), chunkAddresses(text, chunks));
+        assertEquals(wholeFileAddresses(text), chunkAddresses(text, planChunks(text, 9)));
+        assertEquals(wholeFileAddresses(text), chunkAddresses(text, planChunks(text, 17)));
+    }
+
+    @Test
+    void skipsTheRestOfALongLine() throws IOException {
+        //the cut of the first chunk falls right before the address at the end of the long line
+        int cut = 16 - 1 + MAX_LINE_LENGTH;
+        String longLine = "x".repeat(cut - 8) + "5.6.7.8";
+        String text = "1.2.3.4\n" + longLine + "\n9.9.9.9\n";
+        List<ChunkRange> chunks = planChunks(text, 16);
+        assertEquals(new ChunkRange(0, 0, cut), chunks.getFirst());
+        assertEquals(text.indexOf("9.9.9.9"), chunks.get(1).startPointer());
+        assertEquals(List.of(0x01020304L, 0x09090909L), chunkAddresses(text, chunks));
+
+        //a long line without a separator after it
+        text = "1.2.3.4\n" + longLine;
+        chunks = planChunks(text, 16);
+        assertEquals(List.of(new ChunkRange(0, 0, cut)), chunks);
+        assertEquals(List.of(0x01020304L), chunkAddresses(text, chunks));
+
+        //a line exactly as long as the search keeps the chunk to its end
+        text = "1.2.3.4\n" + "x".repeat(cut - 9) + "\n5.6.7.8\n";
+        assertEquals(new ChunkRange(0, 0, cut), planChunks(text, 16).getFirst());
+        assertEquals(List.of(0x01020304L, 0x05060708L), chunkAddresses(text, planChunks(text, 16)));
+    }
+
+    @Test
+    void matchesTheWholeFileOnRandomLines() throws IOException {
+        Random random = new Random(42);
+        String[] separators = {"\n", "\r\n", "\r"};
+        for (int run = 0; run < 200; run++) {
+            StringBuilder text = new StringBuilder();
+            int lineCount = random.nextInt(200);
+            for (int i = 0; i < lineCount; i++) {
+                switch (random.nextInt(20)) {
+                    case 0 -> text.append("7".repeat(MAX_LINE_LENGTH + random.nextInt(100) - 50)).append("1.1.1.1");
+                    case 1 -> text.append(" 1.2.3.4");
+                    default -> text.append(random.nextInt(256)).append('.').append(random.nextInt(256)).append('.')
+                            .append(random.nextInt(256)).append('.').append(random.nextInt(256));
+                }
+                text.append(separators[random.nextInt(separators.length)]);
+            }
+            if (random.nextBoolean()) {
+                text.append("4.3.2.1");
+            }
+            long chunkSize = 1 + random.nextInt(300);
+            String input = text.toString();
+            assertEquals(wholeFileAddresses(input), chunkAddresses(input, planChunks(input, chunkSize)), "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    void plansTheRangeOfTheFile() throws IOException {
+        String text = "1.2.3.4\n5.6.7.8\n9.9.9.9\n8.8.8.8";
+        Path path = write(text);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            //the unfinished line after the last separator is left for the next run
+            long endPointer = ChunkPlanner.lastLineEnd(channel, 0, channel.size());
+            assertEquals(text.lastIndexOf('\n') + 1, endPointer);
+            assertEquals(8, ChunkPlanner.lastLineEnd(channel, 0, 15));
+            assertEquals(8, ChunkPlanner.lastLineEnd(channel, 8, 15));
+            assertEquals(0, ChunkPlanner.lastLineEnd(channel, 0, 7));
+            List<ChunkRange> chunks = ChunkPlanner.planChunks(channel, 8, endPointer, 4);
+            assertEquals(List.of(new ChunkRange(0, 8, 8), new ChunkRange(1, 16, 8)), chunks);
+        }
+    }
+
+    private List<ChunkRange> planChunks(String text, long chunkSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(write(text), StandardOpenOption.READ)) {
+            List<ChunkRange> chunks = ChunkPlanner.planChunks(channel, chunkSize);
+            for (int i = 0; i < chunks.size(); i++) {
+                ChunkRange chunk = chunks.get(i);
+                assertEquals(i, chunk.sequenceNumber());
+                assertTrue(chunk.size() > 0);
+                assertTrue(i == 0 || chunk.startPointer() >= chunks.get(i - 1).startPointer() + chunks.get(i - 1).size());
+            }
+            return chunks;
+        }
+    }
+
+    private Path write(String text) throws IOException {
+        return Files.writeString(directory.resolve("addresses.txt"), text, StandardCharsets.US_ASCII);
+    }
+
+    private static List<Long> chunkAddresses(String text, List<ChunkRange> chunks) {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        List<Long> addresses = new ArrayList<>();
+        for (ChunkRange chunk : chunks) {
+            addAddresses(buffer, (int) chunk.startPointer(), (int) chunk.startPointer() + chunk.size(), addresses);
+        }
+        return addresses;
+    }
+
+    private static List<Long> wholeFileAddresses(String text) {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        List<Long> addresses = new ArrayList<>();
+        addAddresses(buffer, 0, buffer.limit(), addresses);
+        return addresses;
+    }
+
+    private static void addAddresses(ByteBuffer buffer, int from, int to, List<Long> addresses) {
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = IPAddressParser.nextLineEnd(buffer, lineStart, to);
+            long address = IPAddressParser.parse(buffer, lineStart, lineEnd);
+            if (address != IPAddressParser.NO_ADDRESS) {
+                addresses.add(address);
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.data.ChunkRange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The range tasks together must find every member of the file once, wherever the range boundaries fall.
+ */
+class GzipMemberLoadBalancerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsEveryMemberInTheRanges() throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        List<Long> memberOffsets = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            memberOffsets.add((long) file.size());
+            try (GZIPOutputStream member = new GZIPOutputStream(file)) {
+                member.write(("10.0." + i + ".1\n").repeat(i * 7).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        Path path = Files.write(directory.resolve("addresses.gz"), file.toByteArray());
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Long> wholeFileCandidates = GzipMemberLoadBalancer.findMemberCandidates(channel, 0, channel.size());
+            assertTrue(wholeFileCandidates.containsAll(memberOffsets));
+            //every range size puts the boundaries at other bytes of the signatures
+            for (long rangeSize = 1; rangeSize < 64; rangeSize++) {
+                assertEquals(wholeFileCandidates, findCandidates(channel, rangeSize), "range size " + rangeSize);
+            }
+            assertEquals(wholeFileCandidates, findCandidates(channel, channel.size()));
+            assertEquals(wholeFileCandidates, findCandidates(channel, channel.size() * 2));
+        }
+    }
+
+    @Test
+    void plansTheRangesWithoutReadingTheFile() {
+        assertEquals(List.of(), GzipMemberLoadBalancer.planSearchRanges(0, 100));
+        assertEquals(List.of(new ChunkRange(0, 0, 100)), GzipMemberLoadBalancer.planSearchRanges(100, 100));
+        assertEquals(List.of(new ChunkRange(0, 0, 100), new ChunkRange(1, 100, 100), new ChunkRange(2, 200, 1)),
+                GzipMemberLoadBalancer.planSearchRanges(201, 100));
+    }
+
+    private static List<Long> findCandidates(FileChannel channel, long rangeSize) throws IOException {
+        List<Long> candidates = new ArrayList<>();
+        for (ChunkRange searchRange : GzipMemberLoadBalancer.planSearchRanges(channel.size(), rangeSize)) {
+            candidates.addAll(GzipMemberLoadBalancer.findMemberCandidates(channel, searchRange.startPointer(), searchRange.startPointer() + searchRange.size()));
+        }
+        return candidates;
+    }
+}
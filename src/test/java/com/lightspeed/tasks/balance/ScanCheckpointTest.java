@@ -0,0 +1,125 @@
+package com.lightspeed.tasks.balance;
+
+import com.lightspeed.tasks.cardinality.AddressBitmap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A scan resumed from the checkpoint must restore the completed chunks, their total and the bitmap, and only for the same input.
+ */
+class ScanCheckpointTest {
+    private static final long CHUNK_SIZE = 1 << 20;
+    private static final int MAX_ARRAY_CONTAINER_SIZE = AddressBitmap.CONTAINER_WORD_COUNT * Long.BYTES / Character.BYTES;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void resumesTheCompletedChunks() throws IOException {
+        Path scannedFile = scannedFile();
+        Path checkpointPath = directory.resolve("scan.checkpoint");
+        AddressBitmap addressBitmap = new AddressBitmap();
+        ScanCheckpoint scanCheckpoint = ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE, addressBitmap);
+        assertFalse(scanCheckpoint.isCompleted(0));
+
+        //an array container, the largest one and the first word container, and chunks past the first word of the set
+        fillContainer(addressBitmap, 0, MAX_ARRAY_CONTAINER_SIZE);
+        fillContainer(addressBitmap, 1, MAX_ARRAY_CONTAINER_SIZE + 1);
+        fillContainer(addressBitmap, AddressBitmap.CONTAINER_COUNT - 1, 1);
+        int[] completedChunks = {0, 3, 64, 200};
+        for (int sequenceNumber : completedChunks) {
+            scanCheckpoint.chunkCompleted(sequenceNumber, 1000);
+        }
+        scanCheckpoint.save(addressBitmap);
+        //a chunk completed after the save is scanned again after the restart
+        scanCheckpoint.chunkCompleted(5, 1000);
+
+        AddressBitmap restoredBitmap = new AddressBitmap();
+        ScanCheckpoint restoredCheckpoint = ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE, restoredBitmap);
+        for (int sequenceNumber = 0; sequenceNumber < 300; sequenceNumber++) {
+            assertEquals(Arrays.binarySearch(completedChunks, sequenceNumber) >= 0, restoredCheckpoint.isCompleted(sequenceNumber), "chunk " + sequenceNumber);
+        }
+        assertEquals(completedChunks.length * 1000L, restoredBitmap.getTotalCount());
+        assertEquals(addressBitmap.getUniqueCount(), restoredBitmap.getUniqueCount());
+        assertEquals(2L * MAX_ARRAY_CONTAINER_SIZE + 2, restoredBitmap.getUniqueCount());
+
+        //the resumed scan saves its own progress on top of the restored one
+        restoredCheckpoint.chunkCompleted(5, 500);
+        restoredCheckpoint.save(restoredBitmap);
+        ScanCheckpoint resumedCheckpoint = ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE, new AddressBitmap());
+        assertTrue(resumedCheckpoint.isCompleted(5));
+        assertTrue(resumedCheckpoint.isCompleted(200));
+
+        restoredCheckpoint.delete();
+        assertFalse(Files.exists(checkpointPath));
+    }
+
+    @Test
+    void startsOverForAnotherInput() throws IOException {
+        Path scannedFile = scannedFile();
+        Path checkpointPath = directory.resolve("scan.checkpoint");
+        AddressBitmap addressBitmap = new AddressBitmap();
+        ScanCheckpoint scanCheckpoint = ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE, addressBitmap);
+        addressBitmap.add(1);
+        scanCheckpoint.chunkCompleted(0, 1);
+        scanCheckpoint.save(addressBitmap);
+
+        //another chunk plan
+        addressBitmap.clear();
+        assertFalse(ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE / 2, addressBitmap).isCompleted(0));
+        assertEquals(0, addressBitmap.getUniqueCount());
+        //the file was changed
+        Files.setLastModifiedTime(scannedFile, FileTime.fromMillis(Files.getLastModifiedTime(scannedFile).toMillis() - 60_000));
+        assertFalse(ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE, addressBitmap).isCompleted(0));
+        Files.writeString(scannedFile, "10.0.0.1\n", StandardOpenOption.APPEND);
+        assertFalse(ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE, addressBitmap).isCompleted(0));
+        assertEquals(0, addressBitmap.getUniqueCount());
+        assertEquals(0, addressBitmap.getTotalCount());
+    }
+
+    @Test
+    void refusesATruncatedCheckpoint() throws IOException {
+        Path scannedFile = scannedFile();
+        Path checkpointPath = directory.resolve("scan.checkpoint");
+        AddressBitmap addressBitmap = new AddressBitmap();
+        ScanCheckpoint scanCheckpoint = ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE, addressBitmap);
+        fillContainer(addressBitmap, 7, MAX_ARRAY_CONTAINER_SIZE + 1);
+        scanCheckpoint.chunkCompleted(130, 10);
+        scanCheckpoint.save(addressBitmap);
+
+        byte[] data = Files.readAllBytes(checkpointPath);
+        //the header is 6 longs, shorter files are taken as no checkpoint of this input
+        int headerSize = 6 * Long.BYTES;
+        AddressBitmap restoredBitmap = new AddressBitmap();
+        for (int length = headerSize; length < data.length; length += length < headerSize + 64 ? 1 : 509) {
+            Files.write(checkpointPath, Arrays.copyOf(data, length));
+            assertThrows(IOException.class, () -> ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE, restoredBitmap), "length " + length);
+        }
+        Files.write(checkpointPath, Arrays.copyOf(data, headerSize - 1));
+        assertFalse(ScanCheckpoint.open(checkpointPath, scannedFile, CHUNK_SIZE, restoredBitmap).isCompleted(130));
+    }
+
+    private Path scannedFile() throws IOException {
+        Path scannedFile = directory.resolve("addresses.txt");
+        Files.writeString(scannedFile, "1.2.3.4\n5.6.7.8\n");
+        return scannedFile;
+    }
+
+    private static void fillContainer(AddressBitmap addressBitmap, int key, int cardinality) {
+        for (int i = 0; i < cardinality; i++) {
+            addressBitmap.add(key << 16 | i * 3 & 0xFFFF);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.lightspeed.tasks.cardinality;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The containers written by {@link AddressBitmap#writeTo} must read back into the same bits, and broken data must be refused.
+ */
+class AddressBitmapTest {
+    /**
+     * The largest container written as the low 16 bits of its addresses, a larger one is written as its words.
+     */
+    static final int MAX_ARRAY_CONTAINER_SIZE = AddressBitmap.CONTAINER_WORD_COUNT * Long.BYTES / Character.BYTES;
+    static final int CONTAINER_SIZE = AddressBitmap.CONTAINER_WORD_COUNT * Long.SIZE;
+
+    @Test
+    void readsTheWrittenContainers() throws IOException {
+        AddressBitmap addressBitmap = new AddressBitmap();
+        fillContainers(addressBitmap, 0);
+        byte[] data = write(addressBitmap);
+
+        //the header and data of every container and the end marker
+        int expectedSize = Integer.BYTES;
+        for (int cardinality : cardinalities()) {
+            expectedSize += AddressBitmap.CONTAINER_HEADER_SIZE + AddressBitmap.getContainerDataSize(cardinality);
+        }
+        assertEquals(expectedSize, data.length);
+        assertEquals(MAX_ARRAY_CONTAINER_SIZE * Character.BYTES, AddressBitmap.getContainerDataSize(MAX_ARRAY_CONTAINER_SIZE));
+        assertEquals(AddressBitmap.CONTAINER_WORD_COUNT * Long.BYTES, AddressBitmap.getContainerDataSize(MAX_ARRAY_CONTAINER_SIZE + 1));
+
+        AddressBitmap restoredBitmap = new AddressBitmap();
+        restoredBitmap.readFrom(Channels.newChannel(new ByteArrayInputStream(data)));
+        assertArrayEquals(addressBitmap.getWords(), restoredBitmap.getWords());
+        assertEquals(addressBitmap.getUniqueCount(), restoredBitmap.getUniqueCount());
+
+        //reading adds to the bits already set
+        restoredBitmap.clear();
+        fillContainers(restoredBitmap, 1);
+        AddressBitmap unionBitmap = new AddressBitmap();
+        fillContainers(unionBitmap, 0);
+        fillContainers(unionBitmap, 1);
+        restoredBitmap.readFrom(Channels.newChannel(new ByteArrayInputStream(data)));
+        assertArrayEquals(unionBitmap.getWords(), restoredBitmap.getWords());
+    }
+
+    @Test
+    void writesAnEmptyBitmap() throws IOException {
+        byte[] data = write(new AddressBitmap());
+        assertArrayEquals(ByteBuffer.allocate(Integer.BYTES).putInt(AddressBitmap.END_OF_CONTAINERS).array(), data);
+    }
+
+    @Test
+    void refusesTruncatedData() throws IOException {
+        AddressBitmap addressBitmap = new AddressBitmap();
+        fillContainers(addressBitmap, 0);
+        byte[] data = write(addressBitmap);
+        AddressBitmap restoredBitmap = new AddressBitmap();
+        for (int length = 0; length < data.length; length += length < 64 ? 1 : 61) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThrows(EOFException.class, () -> restoredBitmap.readFrom(Channels.newChannel(new ByteArrayInputStream(truncated))), "length " + length);
+        }
+        assertThrows(EOFException.class, () -> restoredBitmap.readFrom(Channels.newChannel(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 1)))));
+    }
+
+    @Test
+    void refusesBrokenContainers() {
+        AddressBitmap addressBitmap = new AddressBitmap();
+        for (int[] container : new int[][]{{AddressBitmap.CONTAINER_COUNT, 1}, {-2, 1}, {0, 0}, {0, -1}, {0, CONTAINER_SIZE + 1}}) {
+            byte[] data = ByteBuffer.allocate(64).putInt(container[0]).putInt(container[1]).array();
+            assertThrows(IOException.class, () -> addressBitmap.readFrom(Channels.newChannel(new ByteArrayInputStream(data))), Arrays.toString(container));
+        }
+    }
+
+    /**
+     * @return The cardinalities of the containers set by {@link #fillContainers}, around the switch to the word containers
+     */
+    static int[] cardinalities() {
+        return new int[]{1, 2, MAX_ARRAY_CONTAINER_SIZE - 1, MAX_ARRAY_CONTAINER_SIZE, MAX_ARRAY_CONTAINER_SIZE + 1, CONTAINER_SIZE - 1, CONTAINER_SIZE};
+    }
+
+    /**
+     * Sets a container of every cardinality, the first one at container 0 and the last at the last container.
+     *
+     * @param variant Moves the addresses inside the containers, so two variants overlap only partly
+     */
+    static void fillContainers(AddressBitmap addressBitmap, int variant) {
+        int[] cardinalities = cardinalities();
+        for (int i = 0; i < cardinalities.length; i++) {
+            int key = i == cardinalities.length - 1 ? AddressBitmap.CONTAINER_COUNT - 1 : i * 997;
+            //a stride spreads the addresses over the container, the odd stride visits every low address once
+            int stride = 2 * (i + variant) + 1;
+            for (int j = 0; j < cardinalities[i]; j++) {
+                addressBitmap.add(key << 16 | (j * stride + variant * 7) & 0xFFFF);
+            }
+        }
+    }
+
+    static byte[] write(AddressBitmap addressBitmap) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        addressBitmap.writeTo(Channels.newChannel(output));
+        return output.toByteArray();
+    }
+}
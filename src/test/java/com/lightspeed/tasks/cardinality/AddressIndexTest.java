@@ -0,0 +1,56 @@
+package com.lightspeed.tasks.cardinality;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The histogram must count the full ranges exactly and refuse the ranges too large for its counts.
+ */
+class AddressIndexTest {
+
+    @Test
+    void countsFullRanges() {
+        AddressBitmap addressBitmap = new AddressBitmap();
+        Arrays.fill(addressBitmap.getWords(), -1L);
+        AddressIndex addressIndex = new AddressIndex(addressBitmap);
+
+        int[] counts = addressIndex.histogram(8);
+        assertEquals(256, counts.length);
+        assertTrue(Arrays.stream(counts).allMatch(count -> count == 1 << 24));
+        assertTrue(Arrays.stream(addressIndex.histogram(24)).allMatch(count -> count == 256));
+        assertEquals(1L << 32, addressIndex.count("0.0.0.0/0"));
+        assertEquals(1L << 31, addressIndex.count("128.0.0.0/1"));
+    }
+
+    @Test
+    void countsSparseRanges() {
+        AddressBitmap addressBitmap = new AddressBitmap();
+        addressBitmap.add(0);
+        addressBitmap.add(0x0A000001);
+        addressBitmap.add(0x0A0000FF);
+        addressBitmap.add(0x0A010000);
+        addressBitmap.add(-1);
+        AddressIndex addressIndex = new AddressIndex(addressBitmap);
+
+        int[] counts = addressIndex.histogram(16);
+        assertEquals(1, counts[0]);
+        assertEquals(2, counts[0x0A00]);
+        assertEquals(1, counts[0x0A01]);
+        assertEquals(1, counts[0xFFFF]);
+        assertEquals(5, Arrays.stream(counts).sum());
+        assertEquals(3, addressIndex.histogram(8)[10]);
+    }
+
+    @Test
+    void refusesOtherPrefixLengths() {
+        AddressIndex addressIndex = new AddressIndex(new AddressBitmap());
+        for (int prefixLength : new int[]{-1, 0, 1, 7, 25, 32}) {
+            assertThrows(IllegalArgumentException.class, () -> addressIndex.histogram(prefixLength), "prefix " + prefixLength);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.lightspeed.tasks.cardinality;
+
+import com.lightspeed.tasks.libs.types.ListFormatTypes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The CIDR list must cover exactly the addresses of the bitmap with the largest aligned blocks.
+ */
+class AddressListWriterTest {
+    private static final AddressBitmap BITMAP = new AddressBitmap();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesTheFirstAndLastAddress() throws IOException {
+        assertEquals(List.of("0.0.0.0/32"), writeRanges(0L));
+        assertEquals(List.of("255.255.255.255/32"), writeRanges(0xFFFFFFFFL));
+        assertEquals(List.of("0.0.0.0/32", "255.255.255.255/32"), writeRanges(0L, 0xFFFFFFFFL));
+        assertEquals(List.of("0.0.0.0", "255.255.255.255"), write(ListFormatTypes.ADDRESSES));
+    }
+
+    @Test
+    void writesTheFullRange() throws IOException {
+        BITMAP.clear();
+        Arrays.fill(BITMAP.getWords(), -1L);
+        assertEquals(List.of("0.0.0.0/0"), write(ListFormatTypes.CIDR));
+
+        //without the first address every block up to the /1 is needed
+        BITMAP.getWords()[0] = -2L;
+        List<String> expected = new ArrayList<>();
+        for (int sizeBits = 0; sizeBits < 32; sizeBits++) {
+            expected.add(toAddress(1L << sizeBits) + "/" + (32 - sizeBits));
+        }
+        assertEquals(expected, write(ListFormatTypes.CIDR));
+
+        //without the last address the blocks shrink towards the end
+        BITMAP.getWords()[0] = -1L;
+        BITMAP.getWords()[AddressBitmap.WORD_COUNT - 1] = Long.MAX_VALUE;
+        expected.clear();
+        for (int sizeBits = 31; sizeBits >= 0; sizeBits--) {
+            expected.add(toAddress((1L << 32) - (2L << sizeBits)) + "/" + (32 - sizeBits));
+        }
+        assertEquals(expected, write(ListFormatTypes.CIDR));
+    }
+
+    @Test
+    void writesRunsAcrossWords() throws IOException {
+        assertEquals(List.of("0.0.0.60/30", "0.0.0.64/30", "0.0.0.68/31"), writeRanges(range(60, 70)));
+        assertEquals(List.of("0.0.1.0/24"), writeRanges(range(256, 512)));
+        assertEquals(List.of("0.0.0.63/32", "0.0.0.64/26", "0.0.0.128/25", "0.0.1.0/24", "0.0.2.0/32"), writeRanges(range(63, 513)));
+        //the run ends on the last bit of a word and the next one starts on the first bit of the word after
+        assertEquals(List.of("0.0.0.0/26", "0.0.0.128/32"), writeRanges(concat(range(0, 64), range(128, 129))));
+        assertEquals(List.of("0.0.0.0/26"), writeRanges(range(0, 64)));
+        assertEquals(List.of("0.0.0.0/25"), writeRanges(range(0, 128)));
+    }
+
+    @Test
+    void writesUnalignedRuns() throws IOException {
+        assertEquals(List.of("0.0.0.3/32", "0.0.0.4/30", "0.0.0.8/30", "0.0.0.12/32"), writeRanges(range(3, 13)));
+        assertEquals(List.of("10.0.0.1/32", "10.0.0.2/31", "10.0.0.4/32", "10.0.0.6/32"),
+                writeRanges(concat(range(0x0A000001L, 0x0A000005L), range(0x0A000006L, 0x0A000007L))));
+
+        Random random = new Random(42);
+        for (int run = 0; run < 20; run++) {
+            TreeSet<Long> addresses = new TreeSet<>();
+            long base = random.nextLong(1L << 32);
+            for (int i = 0; i < 200; i++) {
+                long start = Math.min(base + random.nextInt(20_000), 0xFFFFFFFFL);
+                long end = Math.min(start + 1 + random.nextInt(300), 1L << 32);
+                for (long address = start; address < end; address++) {
+                    addresses.add(address);
+                }
+            }
+            long[] sorted = addresses.stream().mapToLong(Long::longValue).toArray();
+            assertEquals(expectedRanges(sorted), writeRanges(sorted));
+            assertEquals(addresses.stream().map(AddressListWriterTest::toAddress).toList(), write(ListFormatTypes.ADDRESSES));
+        }
+    }
+
+    @Test
+    void writesMoreLinesThanTheBuffer() throws IOException {
+        //every other address, so each one is its own block
+        long[] addresses = new long[1 << 20];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = 2L * i;
+        }
+        List<String> lines = writeRanges(addresses);
+        assertEquals(addresses.length, lines.size());
+        assertEquals("0.0.0.0/32", lines.getFirst());
+        assertEquals(toAddress(addresses[addresses.length - 1]) + "/32", lines.getLast());
+        assertEquals(expectedRanges(addresses), lines);
+    }
+
+    private List<String> writeRanges(long... addresses) throws IOException {
+        BITMAP.clear();
+        for (long address : addresses) {
+            BITMAP.add((int) address);
+        }
+        return write(ListFormatTypes.CIDR);
+    }
+
+    private List<String> write(ListFormatTypes listFormat) throws IOException {
+        Path listPath = directory.resolve("list.txt");
+        long lineCount = AddressListWriter.write(listPath, BITMAP, listFormat);
+        List<String> lines = Files.readAllLines(listPath);
+        assertEquals(lines.size(), lineCount);
+        return lines;
+    }
+
+    /**
+     * The blocks of the sorted addresses, one address at a time, each run split by the largest aligned block that fits.
+     */
+    private static List<String> expectedRanges(long[] addresses) {
+        List<String> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < addresses.length) {
+            long start = addresses[i];
+            long end = start + 1;
+            while (++i < addresses.length && addresses[i] == end) {
+                end++;
+            }
+            while (start < end) {
+                int sizeBits = 32;
+                while (start % (1L << sizeBits) != 0 || start + (1L << sizeBits) > end) {
+                    sizeBits--;
+                }
+                ranges.add(toAddress(start) + "/" + (32 - sizeBits));
+                start += 1L << sizeBits;
+            }
+        }
+        return ranges;
+    }
+
+    private static long[] range(long start, long end) {
+        long[] addresses = new long[(int) (end - start)];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = start + i;
+        }
+        return addresses;
+    }
+
+    private static long[] concat(long[] first, long[] second) {
+        long[] addresses = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, addresses, first.length, second.length);
+        return addresses;
+    }
+
+    private static String toAddress(long address) {
+        return (address >>> 24 & 0xFF) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "." + (address & 0xFF);
+    }
+}
@@ -0,0 +1,80 @@
+package com.lightspeed.tasks.libs;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The text and the buffer parser must accept and reject the same lines.
+ */
+class IPAddressParserTest {
+
+    @Test
+    void parsesValidAddresses() {
+        assertParsed(0L, "0.0.0.0");
+        assertParsed(0xFFFFFFFFL, "255.255.255.255");
+        assertParsed(3232235521L, "192.168.0.1");
+        assertParsed(0x0A000001L, "10.0.0.1");
+        //leading zeros don't change the octet, however many there are
+        assertParsed(0x01020304L, "001.002.003.004");
+        assertParsed(0x01020304L, "0000000000001.2.3.4");
+        assertParsed(0x01020304L, "1.2.3.00000000000000000004");
+        assertParsed(0x00000000L, "000.000.000.000");
+        assertParsed(0xFF000000L, "0255.0.0.0");
+    }
+
+    @Test
+    void rejectsInvalidLines() {
+        String[] lines = {
+                "", ".", "...", "1.2.3", "1.2.3.", "1.2.3.4.", ".1.2.3.4", "1..2.3", "1.2.3.4.5",
+                "+1.2.3.4", "-1.2.3.4", "1.+2.3.4", "1.2.3.-4",
+                " 1.2.3.4", "1.2.3.4 ", "1. 2.3.4", "1.2.3.4\t", "1.2.3.4\n",
+                "256.0.0.0", "0.0.0.256", "1.2.3.1000", "99999999999.1.1.1", "00000000256.1.1.1",
+                "1.2.3.4a", "a1.2.3.4", "0x1.2.3.4", "1.2.3.4/24", "1,2,3,4", "١.٢.٣.٤"
+        };
+        for (String line : lines) {
+            assertParsed(IPAddressParser.NO_ADDRESS, line);
+        }
+        assertEquals(IPAddressParser.NO_ADDRESS, IPAddressParser.parse(null));
+    }
+
+    @Test
+    void parsesTheRangeOfTheBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap("9.9.9.9\n1.2.3.4\r\n+5.6.7.8".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(0x09090909L, IPAddressParser.parse(buffer, 0, 7));
+        assertEquals(0x01020304L, IPAddressParser.parse(buffer, 8, 15));
+        assertEquals(IPAddressParser.NO_ADDRESS, IPAddressParser.parse(buffer, 8, 16));
+        assertEquals(IPAddressParser.NO_ADDRESS, IPAddressParser.parse(buffer, 17, buffer.limit()));
+        assertEquals(0x05060708L, IPAddressParser.parse(buffer, 18, buffer.limit()));
+        assertEquals(IPAddressParser.NO_ADDRESS, IPAddressParser.parse(buffer, 8, 8));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void findsTheLineSeparators() {
+        ByteBuffer buffer = ByteBuffer.wrap("1.2.3.4\r\n5.6.7.8\n9.9.9.9".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(7, IPAddressParser.nextLineEnd(buffer, 0, buffer.limit()));
+        assertEquals(8, IPAddressParser.nextLineEnd(buffer, 8, buffer.limit()));
+        assertEquals(16, IPAddressParser.nextLineEnd(buffer, 9, buffer.limit()));
+        assertEquals(buffer.limit(), IPAddressParser.nextLineEnd(buffer, 17, buffer.limit()));
+        assertEquals(5, IPAddressParser.nextLineEnd(buffer, 0, 5));
+        assertEquals(16, IPAddressParser.lastLineEnd(buffer, 0, buffer.limit()));
+        assertEquals(8, IPAddressParser.lastLineEnd(buffer, 0, 16));
+        assertEquals(-1, IPAddressParser.lastLineEnd(buffer, 0, 7));
+    }
+
+    /**
+     * Parses the line as text and from a heap and a direct buffer, placed after a prefix so the indexes don't start at 0.
+     */
+    private static void assertParsed(long expected, String line) {
+        assertEquals(expected, IPAddressParser.parse(line), line);
+        byte[] bytes = ("7.7.7.7\n" + line + "\n").getBytes(StandardCharsets.UTF_8);
+        int to = bytes.length - 1;
+        assertEquals(expected, IPAddressParser.parse(ByteBuffer.wrap(bytes), 8, to), line);
+        assertEquals(expected, IPAddressParser.parse(ByteBuffer.allocateDirect(bytes.length).put(0, bytes), 8, to), line);
+        assertEquals(expected, IPAddressParser.parse(new StringBuilder(line)), line);
+    }
+}
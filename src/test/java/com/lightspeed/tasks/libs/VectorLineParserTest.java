@@ -0,0 +1,82 @@
+package com.lightspeed.tasks.libs;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The vectorized line loop must report the same lines and addresses as the scalar one of {@link IPAddressParser}.
+ */
+class VectorLineParserTest {
+    private static final String[] LINES = {
+            "192.168.0.1", "0.0.0.0", "255.255.255.255", "10.0.0.256", "1.2.3", "1.2.3.4.", ".1.2.3.4", "1..2.3",
+            "+1.2.3.4", " 1.2.3.4", "1.2.3.4 ", "001.002.003.004", "0001.2.3.4", "1.2.3.00000000004", "0000000000001.2.3.4",
+            "1.2.3.4a", "a1.2.3.4", "999.1.1.1", "1.2.3.-4", "", "12345678901234567890", "1.2.3.4/24", "127.0.0.1"
+    };
+
+    @Test
+    void matchesScalarParserOnRandomRanges() throws InterruptedException {
+        Random random = new Random(42);
+        for (int run = 0; run < 20_000; run++) {
+            byte[] bytes = randomLines(random).getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer buffer = random.nextBoolean() ? ByteBuffer.wrap(bytes) : ByteBuffer.allocateDirect(bytes.length).put(0, bytes);
+            int from = bytes.length == 0 ? 0 : random.nextInt(bytes.length);
+            int to = from + random.nextInt(bytes.length - from + 1);
+            assertEquals(scalarLines(buffer, from, to), vectorLines(buffer, from, to), "range " + from + ".." + to + " of " + new String(bytes, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    void parsesLinesCrossingWindows() throws InterruptedException {
+        //every offset of the lines against the 32 and 64 byte windows
+        for (int padding = 0; padding < 130; padding++) {
+            String text = "9".repeat(padding) + "\n1.2.3.4\r\n010.020.030.040\n\n255.255.255.255\r1.2.3.00004\n" + "7.7.7.7".repeat(padding % 3) + "8.8.8.8";
+            ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+            assertEquals(scalarLines(buffer, 0, buffer.limit()), vectorLines(buffer, 0, buffer.limit()), text);
+        }
+    }
+
+    private static String randomLines(Random random) {
+        StringBuilder text = new StringBuilder();
+        int lineCount = random.nextInt(40);
+        for (int i = 0; i < lineCount; i++) {
+            if (random.nextInt(4) == 0) {
+                text.append(random.nextInt(256)).append('.').append(random.nextInt(256)).append('.')
+                        .append(random.nextInt(256)).append('.').append(random.nextInt(256));
+            } else {
+                text.append(LINES[random.nextInt(LINES.length)]);
+            }
+            switch (random.nextInt(4)) {
+                case 0 -> text.append("\r\n");
+                case 1 -> text.append('\r');
+                default -> text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private static List<Long> scalarLines(ByteBuffer buffer, int from, int to) {
+        List<Long> addresses = new ArrayList<>();
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = IPAddressParser.nextLineEnd(buffer, lineStart, to);
+            if (lineEnd > lineStart) {
+                addresses.add(IPAddressParser.parse(buffer, lineStart, lineEnd));
+            }
+            lineStart = lineEnd + 1;
+        }
+        return addresses;
+    }
+
+    private static List<Long> vectorLines(ByteBuffer buffer, int from, int to) throws InterruptedException {
+        List<Long> addresses = new ArrayList<>();
+        new VectorLineParser(addresses::add).parseLines(buffer, from, to);
+        return addresses;
+    }
+}